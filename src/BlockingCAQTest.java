@@ -0,0 +1,199 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockingCAQTest {
+	CircularArrayBlockingQueue<Integer> queue;
+
+	@Before
+	public void setup() {
+		queue = new CircularArrayBlockingQueue<Integer>(4);
+	}
+
+	@Test
+	public void testBound() {
+		for (int i = 0; i < 4; i++) {
+			assertTrue(queue.offer(i));
+		}
+		assertFalse(queue.offer(4));
+		assertEquals(0, queue.remainingCapacity());
+		assertEquals(0, (int) queue.poll());
+		assertEquals(1, queue.remainingCapacity());
+		assertTrue(queue.offer(4));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullElement() {
+		queue.offer(null);
+	}
+
+	@Test
+	public void testTimeouts() throws InterruptedException {
+		assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+		for (int i = 0; i < 4; i++) {
+			queue.put(i);
+		}
+		assertFalse(queue.offer(4, 10, TimeUnit.MILLISECONDS));
+		assertEquals(4, queue.size());
+	}
+
+	@Test
+	public void testPutTake() throws InterruptedException {
+		final int count = 100000;
+		Thread producer = new Thread(() -> {
+			try {
+				for (int i = 0; i < count; i++) {
+					queue.put(i);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, (int) queue.take());
+		}
+		producer.join();
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testDrainTo() {
+		for (int i = 0; i < 4; i++) {
+			queue.offer(i);
+		}
+		List<Integer> drained = new ArrayList<>();
+		assertEquals(3, queue.drainTo(drained, 3));
+		assertEquals(1, queue.drainTo(drained));
+		assertEquals(0, queue.drainTo(drained));
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i, (int) drained.get(i));
+		}
+	}
+
+	@Test
+	public void testIteratorRemove() {
+		queue = new CircularArrayBlockingQueue<>();
+		for (int i = 0; i < 20; i++) {
+			queue.offer(i);
+		}
+		Iterator<Integer> it = queue.iterator();
+		queue.poll();
+		while (it.hasNext()) {
+			if (it.next() % 2 == 0) {
+				it.remove();
+			}
+		}
+		assertEquals(10, queue.size());
+		for (Integer e : queue) {
+			assertEquals(1, e % 2);
+		}
+		assertTrue(queue.remove(5));
+		assertFalse(queue.remove(5));
+		assertFalse(queue.contains(5));
+	}
+
+	@Test
+	public void testThreadPoolExecutor() throws InterruptedException {
+		final int tasks = 1000;
+		final CountDownLatch done = new CountDownLatch(tasks);
+		final AtomicInteger ran = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+				new CircularArrayBlockingQueue<Runnable>());
+		for (int i = 0; i < tasks; i++) {
+			executor.execute(() -> {
+				ran.incrementAndGet();
+				done.countDown();
+			});
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(tasks, ran.get());
+	}
+
+	@Test
+	public void testOverflowPolicies() throws InterruptedException {
+		for (int i = 0; i < 4; i++) {
+			queue.put(i);
+		}
+		assertFalse(queue.offer(4));
+		assertEquals(1, queue.dropped());
+
+		queue = new CircularArrayBlockingQueue<Integer>(4, false, OverflowPolicy.DROP_OLDEST);
+		for (int i = 0; i < 6; i++) {
+			queue.put(i);
+		}
+		assertTrue(queue.offer(6));
+		assertTrue(queue.offer(7, 1, TimeUnit.MILLISECONDS));
+		assertEquals(4, (int) queue.take());
+		assertEquals(4, queue.dropped());
+
+		queue = new CircularArrayBlockingQueue<Integer>(4, false, OverflowPolicy.DROP_NEWEST);
+		for (int i = 0; i < 6; i++) {
+			queue.put(i);
+		}
+		assertFalse(queue.offer(6));
+		assertEquals(0, (int) queue.take());
+		assertEquals(3, queue.dropped());
+		assertEquals(3, queue.size());
+	}
+
+	@Test
+	public void testAddOverflow() {
+		queue = new CircularArrayBlockingQueue<Integer>(2, false, OverflowPolicy.DROP_NEWEST);
+		assertTrue(queue.add(0));
+		assertTrue(queue.add(1));
+		assertFalse(queue.add(2));
+		assertEquals(1, queue.dropped());
+
+		queue = new CircularArrayBlockingQueue<Integer>(2, false, OverflowPolicy.DROP_OLDEST);
+		queue.addAll(Arrays.asList(0, 1, 2));
+		assertEquals(1, (int) queue.peek());
+
+		queue = new CircularArrayBlockingQueue<Integer>(2, false, OverflowPolicy.REJECT);
+		queue.add(0);
+		queue.add(1);
+		try {
+			queue.add(2);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals(2, queue.size());
+		}
+	}
+
+	@Test
+	public void testBlockOverflow() throws InterruptedException {
+		queue = new CircularArrayBlockingQueue<Integer>(2, false, OverflowPolicy.BLOCK);
+		queue.add(0);
+		queue.add(1);
+		Thread consumer = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+				queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumer.start();
+		assertTrue(queue.offer(2));
+		consumer.join();
+		assertEquals(2, queue.size());
+		assertEquals(1, (int) queue.peek());
+		assertEquals(0, queue.dropped());
+	}
+}
@@ -1,10 +1,17 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -13,8 +20,11 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Random;
+import java.util.RandomAccess;
+import java.util.Spliterator;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -1100,4 +1110,974 @@ public class CAQTest {
 		assertTrue(Arrays.equals(clone.toArray(), queue.toArray()));
 	}
 
+	@Test
+	public void testRemoveObjectWrapped() {
+		queue = new CircularArrayQueue<>(10);
+		for (int i = 0; i < 10; i++) {
+			queue.add(i);
+			test.add(i);
+		}
+		for (int i = 0; i < 6; i++) {
+			queue.remove();
+			test.remove();
+		}
+		for (int i = 10; i < 14; i++) {
+			queue.add(i);
+			test.add(i);
+		}
+		assertEquals(10, queue.capacity());
+
+		assertTrue(queue.remove((Object) 11));
+		test.remove(11);
+		testElementsEqual();
+		assertTrue(queue.remove((Object) 7));
+		test.remove(7);
+		testElementsEqual();
+		queue.add(14);
+		test.add(14);
+		testElementsEqual();
+
+		queue = new CircularArrayQueue<>(10);
+		setup();
+		for (int i = 0; i < 10; i++) {
+			queue.add(i);
+			test.add(i);
+		}
+		assertTrue(queue.remove((Object) 9));
+		test.remove(9);
+		testElementsEqual();
+	}
+
+	@Test
+	public void testPowerOfTwoCapacity() {
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(10);
+		assertEquals(16, queue.capacity());
+		for (int i = 0; i < 16; i++) {
+			queue.add(i);
+			assertEquals(16, queue.capacity());
+		}
+		queue.add(16);
+		assertEquals(32, queue.capacity());
+
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(0);
+		assertEquals(0, queue.capacity());
+		queue.add(1);
+		assertEquals(1, queue.capacity());
+		queue.addAll(Arrays.asList(2, 3, 4));
+		assertEquals(4, queue.capacity());
+		assertEquals(1, (int) queue.remove());
+	}
+
+	@Test
+	public void testPowerOfTwoOperations() {
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(8);
+		Random rand = new Random();
+		for (int i = 0; i < 20000; i++) {
+			float next = rand.nextFloat();
+			if (test.isEmpty()) {
+				next = 0.9f;
+			}
+			if (next >= 0.45f) {
+				queue.add(i);
+				test.add(i);
+			} else if (next >= 0.05f) {
+				assertEquals(test.remove(), queue.remove());
+			} else if (next >= 0.03f) {
+				List<Integer> toAdd = Arrays.asList(i, -i, i + 1);
+				queue.addAll(toAdd);
+				test.addAll(toAdd);
+			} else if (next >= 0.01f) {
+				Iterator<Integer> it = queue.iterator();
+				Iterator<Integer> ti = test.iterator();
+				while (ti.hasNext()) {
+					assertEquals(ti.next(), it.next());
+					if (rand.nextFloat() < 0.2f) {
+						ti.remove();
+						it.remove();
+					}
+				}
+				assertFalse(it.hasNext());
+			} else {
+				List<Integer> toRemove = Arrays.asList(i - 1, i - 2, i - 3, -i + 1);
+				assertEquals(test.removeAll(toRemove), queue.removeAll(toRemove));
+			}
+			assertEquals(Integer.bitCount(queue.capacity()), 1);
+			testElementsEqual();
+		}
+		queue.clear();
+		test.clear();
+		testElementsEqual();
+	}
+
+	@Test
+	public void testAddAllWrapped() {
+		queue = new CircularArrayQueue<>(10);
+		for (int i = 0; i < 8; i++) {
+			queue.add(i);
+			test.add(i);
+		}
+		for (int i = 0; i < 6; i++) {
+			queue.remove();
+			test.remove();
+		}
+		List<Integer> toAdd = Arrays.asList(8, 9, 10, 11, 12);
+		queue.addAll(toAdd);
+		test.addAll(toAdd);
+		assertEquals(10, queue.capacity());
+		testElementsEqual();
+		queue.add(13);
+		test.add(13);
+		testElementsEqual();
+	}
+
+	@Test
+	public void testTrimToSize() {
+		queue = new CircularArrayQueue<Integer>(100);
+		for (int i = 0; i < 60; i++) {
+			queue.add(i);
+			test.add(i);
+		}
+		for (int i = 0; i < 50; i++) {
+			assertEquals(test.remove(), queue.remove());
+		}
+		queue.trimToSize();
+		assertEquals(10, queue.capacity());
+		testElementsEqual();
+		queue.add(60);
+		test.add(60);
+		assertEquals(20, queue.capacity());
+		testElementsEqual();
+
+		queue.clear();
+		queue.trimToSize();
+		assertEquals(0, queue.capacity());
+		queue.add(1);
+		assertEquals(1, (int) queue.remove());
+
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(64);
+		for (int i = 0; i < 5; i++) {
+			queue.add(i);
+		}
+		queue.trimToSize();
+		assertEquals(8, queue.capacity());
+	}
+
+	@Test
+	public void testShrinkPolicy() {
+		queue = new CircularArrayQueue<Integer>(1024);
+		queue.setShrinkPolicy(ShrinkPolicy.halving(16));
+		for (int i = 0; i < 1000; i++) {
+			queue.add(i);
+			test.add(i);
+		}
+		while (test.size() > 256) {
+			assertEquals(test.remove(), queue.remove());
+		}
+		assertEquals(1024, queue.capacity());
+		assertEquals(test.remove(), queue.remove());
+		assertEquals(512, queue.capacity());
+		testElementsEqual();
+		while (!test.isEmpty()) {
+			assertEquals(test.remove(), queue.remove());
+		}
+		assertEquals(16, queue.capacity());
+
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(256);
+		queue.setShrinkPolicy(ShrinkPolicy.halving(10));
+		for (int i = 0; i < 200; i++) {
+			queue.add(i);
+			test.add(i);
+		}
+		queue.retainAll(Arrays.asList(3, 4, 5));
+		test.retainAll(Arrays.asList(3, 4, 5));
+		assertEquals(128, queue.capacity());
+		while (!test.isEmpty()) {
+			assertEquals(test.remove(), queue.remove());
+		}
+		assertEquals(16, queue.capacity());
+	}
+
+	@Test
+	public void testGrowthPolicies() {
+		queue = new CircularArrayQueue<Integer>(10, GrowthPolicy.oneAndAHalf());
+		for (int i = 0; i < 16; i++) {
+			queue.add(i);
+			test.add(i);
+		}
+		assertEquals(15 + 7, queue.capacity());
+		testElementsEqual();
+
+		queue = new CircularArrayQueue<Integer>(10, GrowthPolicy.fixedIncrement(5));
+		queue.addAll(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+		assertEquals(15, queue.capacity());
+		queue.addAll(Arrays.asList(11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26));
+		assertEquals(27, queue.capacity());
+
+		queue = new CircularArrayQueue<Integer>(10, GrowthPolicy.capped(GrowthPolicy.doubling(), 25));
+		for (int i = 0; i < 25; i++) {
+			queue.add(i);
+		}
+		assertEquals(25, queue.capacity());
+		try {
+			queue.add(25);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals(25, queue.size());
+		}
+	}
+
+	@Test
+	public void testCappedGrowthWithPowerOfTwo() {
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(4);
+		queue.setGrowthPolicy(GrowthPolicy.capped(GrowthPolicy.doubling(), 6));
+		for (int i = 0; i < 4; i++) {
+			queue.add(i);
+		}
+		try {
+			queue.add(4);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals(4, queue.capacity());
+			assertEquals(4, queue.size());
+		}
+
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(4);
+		queue.setGrowthPolicy(GrowthPolicy.capped(GrowthPolicy.fixedIncrement(3), 12));
+		for (int i = 0; i < 8; i++) {
+			queue.add(i);
+		}
+		assertEquals(8, queue.capacity());
+		try {
+			queue.add(8);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals(8, queue.size());
+		}
+
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(4);
+		queue.setGrowthPolicy(GrowthPolicy.fixedIncrement(2));
+		queue.addAll(Arrays.asList(0, 1, 2, 3, 4));
+		assertEquals(8, queue.capacity());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i, (int) queue.poll());
+		}
+	}
+
+	@Test
+	public void testSetGrowthPolicy() {
+		queue = new CircularArrayQueue<Integer>(Arrays.asList(0, 1, 2, 3));
+		queue.setGrowthPolicy(GrowthPolicy.fixedIncrement(3));
+		queue.add(4);
+		assertEquals(7, queue.capacity());
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(8);
+		queue.setGrowthPolicy(GrowthPolicy.fixedIncrement(1));
+		for (int i = 0; i < 9; i++) {
+			queue.add(i);
+		}
+		assertEquals(16, queue.capacity());
+	}
+
+	@Test
+	public void testGrowthPolicyOverflow() {
+		int max = GrowthPolicy.MAX_CAPACITY;
+		assertEquals(max, GrowthPolicy.doubling().grow((1 << 30) + 5, (1 << 30) + 6));
+		assertEquals(max, GrowthPolicy.oneAndAHalf().grow(max - 100, max - 99));
+		assertEquals(max, GrowthPolicy.fixedIncrement(1000).grow(max - 1, max));
+		assertEquals(40, GrowthPolicy.doubling().grow(10, 40));
+		try {
+			GrowthPolicy.doubling().grow(max, Integer.MAX_VALUE);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		try {
+			GrowthPolicy.doubling().grow(max, Integer.MIN_VALUE);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void testBoundedOverflow() {
+		queue = CircularArrayQueue.bounded(4, OverflowPolicy.REJECT);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(queue.offer(i));
+		}
+		assertFalse(queue.offer(4));
+		try {
+			queue.add(4);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(2, queue.dropped());
+		assertEquals(4, queue.capacity());
+
+		queue = CircularArrayQueue.bounded(4, OverflowPolicy.DROP_OLDEST);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(queue.add(i));
+		}
+		assertTrue(queue.offer(10));
+		assertTrue(Arrays.equals(new Object[] { 7, 8, 9, 10 }, queue.toArray()));
+		assertEquals(7, queue.dropped());
+		assertEquals(4, queue.capacity());
+
+		queue = CircularArrayQueue.bounded(4, OverflowPolicy.DROP_NEWEST);
+		assertTrue(queue.addAll(Arrays.asList(0, 1, 2, 3, 4, 5)));
+		assertFalse(queue.add(6));
+		assertFalse(queue.addAll(Arrays.asList(7, 8)));
+		assertTrue(Arrays.equals(new Object[] { 0, 1, 2, 3 }, queue.toArray()));
+		assertEquals(5, queue.dropped());
+		assertEquals(0, (int) queue.remove());
+		assertTrue(queue.add(9));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBoundedBlockUnsupported() {
+		CircularArrayQueue.bounded(4, OverflowPolicy.BLOCK);
+	}
+
+	@Test
+	public void testDequeOperations() {
+		for (int mode = 0; mode < 3; mode++) {
+			queue = mode == 0 ? new CircularArrayQueue<Integer>(0)
+					: mode == 1 ? new CircularArrayQueue<Integer>(3) : CircularArrayQueue.withPowerOfTwoCapacity(2);
+			ArrayDeque<Integer> deque = new ArrayDeque<Integer>();
+			Random rand = new Random(mode);
+			for (int i = 0; i < 20000; i++) {
+				int op = deque.isEmpty() ? rand.nextInt(2) : rand.nextInt(8);
+				switch (op) {
+				case 0:
+					queue.addFirst(i);
+					deque.addFirst(i);
+					break;
+				case 1:
+					queue.addLast(i);
+					deque.addLast(i);
+					break;
+				case 2:
+					assertEquals(deque.pollLast(), queue.pollLast());
+					break;
+				case 3:
+					assertEquals(deque.removeFirst(), queue.removeFirst());
+					break;
+				case 4:
+					assertEquals(deque.peekLast(), queue.peekLast());
+					assertEquals(deque.getFirst(), queue.getFirst());
+					break;
+				case 5:
+					queue.push(-i);
+					deque.push(-i);
+					break;
+				case 6:
+					assertEquals(deque.pop(), queue.pop());
+					break;
+				default:
+					Integer o = deque.toArray(new Integer[0])[rand.nextInt(deque.size())];
+					assertEquals(deque.removeLastOccurrence(o), queue.removeLastOccurrence(o));
+				}
+				assertEquals(deque.size(), queue.size());
+			}
+			assertTrue(Arrays.equals(deque.toArray(), queue.toArray()));
+			Iterator<Integer> di = deque.descendingIterator();
+			Iterator<Integer> qi = queue.descendingIterator();
+			while (di.hasNext()) {
+				assertEquals(di.next(), qi.next());
+			}
+			assertFalse(qi.hasNext());
+		}
+	}
+
+	@Test
+	public void testDescendingIteratorRemove() {
+		queue = new CircularArrayQueue<Integer>(8);
+		for (int i = 0; i < 6; i++) {
+			queue.add(i);
+		}
+		queue.remove();
+		queue.remove();
+		queue.addFirst(1);
+		queue.addFirst(0);
+		queue.addFirst(-1);
+		queue.add(6);
+		Iterator<Integer> it = queue.descendingIterator();
+		while (it.hasNext()) {
+			if (it.next() % 2 == 0) {
+				it.remove();
+			}
+		}
+		assertTrue(Arrays.equals(new Object[] { -1, 1, 3, 5 }, queue.toArray()));
+		assertEquals(5, (int) queue.getLast());
+		assertEquals(5, (int) queue.removeLast());
+		assertEquals(-1, (int) queue.peekFirst());
+
+		it = queue.descendingIterator();
+		it.next();
+		queue.addFirst(10);
+		try {
+			it.next();
+			fail();
+		} catch (ConcurrentModificationException e) {
+		}
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testRemoveLastEmpty() {
+		queue.removeLast();
+	}
+
+	@Test
+	public void testGetSet() {
+		for (int mode = 0; mode < 2; mode++) {
+			queue = mode == 0 ? new CircularArrayQueue<Integer>(10) : CircularArrayQueue.withPowerOfTwoCapacity(8);
+			for (int i = 0; i < 8; i++) {
+				queue.add(i);
+			}
+			for (int i = 0; i < 5; i++) {
+				queue.remove();
+			}
+			for (int i = 8; i < 13; i++) {
+				queue.add(i);
+			}
+			for (int i = 0; i < 8; i++) {
+				assertEquals(i + 5, (int) queue.get(i));
+			}
+			assertEquals(12, (int) queue.set(7, 70));
+			assertEquals(5, (int) queue.set(0, 50));
+			assertEquals(70, (int) queue.peekLast());
+			assertEquals(50, (int) queue.peek());
+			try {
+				queue.get(8);
+				fail();
+			} catch (IndexOutOfBoundsException e) {
+			}
+			try {
+				queue.set(-1, 0);
+				fail();
+			} catch (IndexOutOfBoundsException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testAsList() {
+		queue = new CircularArrayQueue<Integer>(16);
+		for (int i = 0; i < 12; i++) {
+			queue.add(i * 2);
+		}
+		for (int i = 0; i < 10; i++) {
+			queue.remove();
+			queue.add((i + 12) * 2);
+		}
+		List<Integer> list = queue.asList();
+		assertTrue(list instanceof RandomAccess);
+		assertEquals(12, list.size());
+		assertEquals(Arrays.asList(20, 22, 24, 26, 28, 30, 32, 34, 36, 38, 40, 42), list);
+		assertEquals(7, Collections.binarySearch(list, 34));
+		assertTrue(Collections.binarySearch(list, 35) < 0);
+		assertEquals(Arrays.asList(24, 26, 28), list.subList(2, 5));
+		list.set(0, 0);
+		assertEquals(0, (int) queue.peek());
+		queue.remove();
+		assertEquals(11, list.size());
+		try {
+			list.add(1);
+			fail();
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void testSpliterator() {
+		queue = new CircularArrayQueue<Integer>(100);
+		for (int i = 0; i < 100; i++) {
+			queue.add(i);
+		}
+		for (int i = 0; i < 60; i++) {
+			queue.remove();
+			queue.add(i + 100);
+		}
+		Spliterator<Integer> s = queue.spliterator();
+		assertTrue(s.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED));
+		assertEquals(100, s.getExactSizeIfKnown());
+		Spliterator<Integer> prefix = s.trySplit();
+		assertEquals(50, prefix.estimateSize());
+		assertEquals(50, s.estimateSize());
+		List<Integer> seen = new ArrayList<>();
+		assertTrue(prefix.tryAdvance(seen::add));
+		prefix.forEachRemaining(seen::add);
+		assertFalse(prefix.tryAdvance(seen::add));
+		s.forEachRemaining(seen::add);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i + 60, (int) seen.get(i));
+		}
+
+		assertEquals(159L * 160 / 2 - 59L * 60 / 2, queue.parallelStream().mapToLong(Integer::longValue).sum());
+		assertEquals(seen, queue.stream().collect(Collectors.toList()));
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testSpliteratorConcurrentModification() {
+		queue.add(1);
+		queue.add(2);
+		Spliterator<Integer> s = queue.spliterator();
+		s.forEachRemaining(e -> queue.add(e));
+	}
+
+	@Test
+	public void testDrain() {
+		for (int mode = 0; mode < 2; mode++) {
+			queue = mode == 0 ? new CircularArrayQueue<Integer>(10) : CircularArrayQueue.withPowerOfTwoCapacity(8);
+			test.clear();
+			for (int i = 0; i < 8; i++) {
+				queue.add(i);
+				test.add(i);
+			}
+			for (int i = 0; i < 5; i++) {
+				assertEquals(test.remove(), queue.remove());
+			}
+			for (int i = 8; i < 13; i++) {
+				queue.add(i);
+				test.add(i);
+			}
+			List<Integer> drained = new ArrayList<>();
+			assertEquals(6, queue.drain(drained::add, 6));
+			assertEquals(Arrays.asList(5, 6, 7, 8, 9, 10), drained);
+			assertEquals(0, queue.drain(drained::add, 0));
+			assertEquals(2, queue.drain(drained::add, 100));
+			assertTrue(queue.isEmpty());
+			queue.add(13);
+			assertEquals(13, (int) queue.remove());
+		}
+	}
+
+	@Test
+	public void testDrainConsumerThrows() {
+		for (int i = 0; i < 6; i++) {
+			queue.add(i);
+		}
+		List<Integer> drained = new ArrayList<>();
+		try {
+			queue.drain(e -> {
+				if (e == 3) {
+					throw new IllegalStateException();
+				}
+				drained.add(e);
+			}, 10);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(Arrays.asList(0, 1, 2), drained);
+		assertEquals(3, queue.size());
+		assertEquals(3, (int) queue.peek());
+	}
+
+	@Test
+	public void testPollInto() {
+		queue = new CircularArrayQueue<Integer>(8);
+		for (int i = 0; i < 8; i++) {
+			queue.add(i);
+		}
+		for (int i = 0; i < 6; i++) {
+			queue.remove();
+			queue.add(i + 8);
+		}
+		Integer[] dst = new Integer[10];
+		assertEquals(5, queue.pollInto(dst, 1, 5));
+		assertTrue(Arrays.equals(new Integer[] { null, 6, 7, 8, 9, 10, null, null, null, null }, dst));
+		assertEquals(3, queue.pollInto(dst, 0, 10));
+		assertEquals(11, (int) dst[0]);
+		assertEquals(13, (int) dst[2]);
+		assertEquals(0, queue.pollInto(dst, 0, 10));
+		assertTrue(queue.isEmpty());
+		try {
+			queue.pollInto(dst, 5, 6);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testAddAllFastPaths() {
+		CircularArrayQueue<Integer> source = new CircularArrayQueue<Integer>(6);
+		for (int i = 0; i < 6; i++) {
+			source.add(i);
+		}
+		for (int i = 0; i < 4; i++) {
+			source.remove();
+			source.add(i + 6);
+		}
+		queue = new CircularArrayQueue<Integer>(12);
+		for (int i = 0; i < 10; i++) {
+			queue.add(-1);
+			test.add(-1);
+		}
+		for (int i = 0; i < 8; i++) {
+			assertEquals(test.remove(), queue.remove());
+		}
+		assertTrue(queue.addAll(source));
+		test.addAll(source);
+		assertEquals(12, queue.capacity());
+		testElementsEqual();
+
+		List<Integer> list = new ArrayList<>(Arrays.asList(20, 21, 22, 23, 24));
+		assertTrue(queue.addAll(list));
+		test.addAll(list);
+		testElementsEqual();
+		assertTrue(queue.addAll(new LinkedList<>(list)));
+		test.addAll(list);
+		testElementsEqual();
+		assertTrue(queue.addAll(queue));
+		test.addAll(new ArrayList<>(test));
+		testElementsEqual();
+		assertFalse(queue.addAll(new ArrayList<Integer>()));
+		assertFalse(queue.addAll(new CircularArrayQueue<Integer>()));
+
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(4);
+		queue.add(0);
+		queue.remove();
+		assertTrue(queue.addAll(source));
+		assertTrue(Arrays.equals(source.toArray(), queue.toArray()));
+		assertEquals(8, queue.capacity());
+	}
+
+	@Test
+	public void testOfferAll() {
+		Integer[] src = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+		queue = new CircularArrayQueue<Integer>(8);
+		for (int i = 0; i < 6; i++) {
+			queue.add(i);
+		}
+		for (int i = 0; i < 5; i++) {
+			queue.remove();
+		}
+		assertEquals(6, queue.offerAll(src, 2, 6));
+		assertTrue(Arrays.equals(new Object[] { 5, 2, 3, 4, 5, 6, 7 }, queue.toArray()));
+		assertEquals(0, queue.offerAll(src, 10, 0));
+		assertEquals(8, queue.capacity());
+		try {
+			queue.offerAll(src, 8, 3);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+		}
+
+		queue = CircularArrayQueue.bounded(4, OverflowPolicy.DROP_NEWEST);
+		assertEquals(4, queue.offerAll(src, 0, 10));
+		assertEquals(6, queue.dropped());
+	}
+
+	@Test
+	public void testIndexed() {
+		for (int mode = 0; mode < 2; mode++) {
+			queue = mode == 0 ? new CircularArrayQueue<Integer>(4) : CircularArrayQueue.withPowerOfTwoCapacity(4);
+			ArrayDeque<Integer> deque = new ArrayDeque<Integer>();
+			for (int i = 0; i < 5; i++) {
+				queue.add(i % 3);
+				deque.add(i % 3);
+			}
+			queue.setIndexed(true);
+			assertTrue(queue.isIndexed());
+			Random rand = new Random(mode);
+			for (int i = 0; i < 20000; i++) {
+				int v = rand.nextInt(40);
+				int op = rand.nextInt(deque.isEmpty() ? 2 : 12);
+				switch (op) {
+				case 0:
+					queue.add(v);
+					deque.add(v);
+					break;
+				case 1:
+					queue.addFirst(v);
+					deque.addFirst(v);
+					break;
+				case 2:
+					assertEquals(deque.remove(), queue.remove());
+					break;
+				case 3:
+					assertEquals(deque.removeLast(), queue.removeLast());
+					break;
+				case 4:
+					assertEquals(deque.remove(v), queue.remove((Object) v));
+					break;
+				case 5:
+					assertEquals(deque.removeLastOccurrence(v), queue.removeLastOccurrence(v));
+					break;
+				case 6:
+					List<Integer> vs = Arrays.asList(v, v + 1, v + 2);
+					assertEquals(deque.removeAll(vs), queue.removeAll(vs));
+					break;
+				case 7:
+					List<Integer> batch = Arrays.asList(v, -v, v);
+					queue.addAll(batch);
+					deque.addAll(batch);
+					break;
+				case 8:
+					List<Integer> drained = new ArrayList<>();
+					queue.drain(drained::add, 3);
+					for (int k = 0; k < drained.size(); k++) {
+						assertEquals(deque.remove(), drained.get(k));
+					}
+					break;
+				case 9:
+					int k = rand.nextInt(deque.size());
+					Integer[] a = deque.toArray(new Integer[0]);
+					assertEquals(a[k], queue.set(k, v));
+					a[k] = v;
+					deque = new ArrayDeque<>(Arrays.asList(a));
+					break;
+				case 10:
+					Iterator<Integer> it = queue.iterator();
+					Iterator<Integer> dt = deque.iterator();
+					while (it.hasNext()) {
+						Integer e = it.next();
+						assertEquals(dt.next(), e);
+						if (e % 5 == 0) {
+							it.remove();
+							dt.remove();
+						}
+					}
+					break;
+				default:
+					if (rand.nextInt(50) == 0) {
+						queue.clear();
+						deque.clear();
+					}
+				}
+				for (int c = -3; c < 44; c += 3) {
+					assertEquals(deque.contains(c), queue.contains(c));
+				}
+			}
+			assertTrue(Arrays.equals(deque.toArray(), queue.toArray()));
+			assertTrue(queue.containsAll(deque));
+			CircularArrayQueue<Integer> copy = queue.clone();
+			copy.add(1000);
+			assertTrue(copy.contains(1000));
+			assertFalse(queue.contains(1000));
+			queue.setIndexed(false);
+			assertFalse(queue.isIndexed());
+			assertTrue(queue.containsAll(deque));
+		}
+	}
+
+	@Test
+	public void testRemoveAllLargeList() {
+		queue = new CircularArrayQueue<Integer>(64);
+		for (int i = 0; i < 50; i++) {
+			queue.add(i);
+			queue.remove();
+		}
+		List<Integer> odd = new ArrayList<>();
+		for (int i = 0; i < 60; i++) {
+			queue.add(i);
+			test.add(i);
+			if (i % 2 == 1) {
+				odd.add(i);
+			}
+		}
+		assertTrue(queue.removeAll(odd));
+		test.removeAll(odd);
+		testElementsEqual();
+		assertFalse(queue.removeAll(odd));
+		odd.add(10);
+		odd.add(20);
+		assertTrue(queue.retainAll(odd));
+		test.retainAll(odd);
+		testElementsEqual();
+		queue.add(30);
+		assertEquals(3, queue.size());
+	}
+
+	@Test
+	public void testRemoveIf() {
+		for (int i = 0; i < 7; i++) {
+			queue.add(i);
+			queue.remove();
+		}
+		for (int i = 0; i < 10; i++) {
+			queue.add(i);
+			test.add(i);
+		}
+		assertTrue(queue.removeIf(e -> e % 3 == 0));
+		test.removeIf(e -> e % 3 == 0);
+		testElementsEqual();
+		assertFalse(queue.removeIf(e -> e > 100));
+		try {
+			queue.removeIf(e -> {
+				if (e == 7) {
+					throw new IllegalStateException();
+				}
+				return e < 5;
+			});
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertTrue(Arrays.equals(new Object[] { 5, 7, 8 }, queue.toArray()));
+		queue.add(9);
+		assertEquals(9, (int) queue.peekLast());
+	}
+
+	@Test
+	public void testIteratorRemoveEitherSide() {
+		for (int mode = 0; mode < 2; mode++) {
+			for (int offset = 0; offset < 8; offset++) {
+				for (int size = 1; size <= 8; size++) {
+					for (int k = 0; k < size; k++) {
+						queue = mode == 0 ? new CircularArrayQueue<Integer>(8) : CircularArrayQueue.withPowerOfTwoCapacity(8);
+						List<Integer> expected = new ArrayList<>();
+						for (int i = 0; i < offset; i++) {
+							queue.add(-1);
+							queue.remove();
+						}
+						for (int i = 0; i < size; i++) {
+							queue.add(i);
+							expected.add(i);
+						}
+						Iterator<Integer> it = mode == 0 ? queue.iterator() : queue.descendingIterator();
+						List<Integer> seen = new ArrayList<>();
+						int removeAt = mode == 0 ? k : size - 1 - k;
+						while (it.hasNext()) {
+							Integer e = it.next();
+							seen.add(e);
+							if (e == removeAt) {
+								it.remove();
+							}
+						}
+						assertEquals(size, seen.size());
+						expected.remove((Integer) removeAt);
+						assertEquals(expected, Arrays.asList(queue.toArray()));
+						assertEquals(8, queue.capacity());
+						queue.add(100);
+						queue.addFirst(-100);
+						assertEquals(100, (int) queue.peekLast());
+						assertEquals(-100, (int) queue.peekFirst());
+						assertEquals(size + 1, queue.size());
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testContentEquality() {
+		CircularArrayQueue<Integer> other = CircularArrayQueue.withPowerOfTwoCapacity(4);
+		queue = new CircularArrayQueue<Integer>(20);
+		for (int i = 0; i < 3; i++) {
+			other.add(-1);
+			other.remove();
+		}
+		for (int i = 0; i < 4; i++) {
+			queue.add(i);
+			other.add(i);
+		}
+		queue.add(null);
+		other.add(null);
+		assertTrue(queue.equals(other));
+		assertTrue(other.equals(queue));
+		assertEquals(Arrays.asList(0, 1, 2, 3, null).hashCode(), queue.hashCode());
+		assertEquals(queue.hashCode(), other.hashCode());
+		other.set(1, 10);
+		assertFalse(queue.equals(other));
+		other.set(1, 1);
+		queue.removeLast();
+		assertFalse(queue.equals(other));
+		assertFalse(queue.equals(Arrays.asList(0, 1, 2, 3)));
+	}
+
+	@Test
+	public void testCachedHash() {
+		queue.setHashCached(true);
+		for (int i = 0; i < 5; i++) {
+			queue.add(i);
+		}
+		int h = queue.hashCode();
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4).hashCode(), h);
+		assertEquals(h, queue.hashCode());
+		queue.set(0, 7);
+		assertEquals(Arrays.asList(7, 1, 2, 3, 4).hashCode(), queue.hashCode());
+		queue.add(5);
+		assertEquals(Arrays.asList(7, 1, 2, 3, 4, 5).hashCode(), queue.hashCode());
+		Iterator<Integer> it = queue.iterator();
+		it.next();
+		it.remove();
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5).hashCode(), queue.hashCode());
+		CircularArrayQueue<Integer> copy = queue.clone();
+		copy.setHashCached(true);
+		assertTrue(queue.equals(copy));
+		copy.removeLast();
+		copy.add(6);
+		assertFalse(queue.equals(copy));
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testIteratorRemoveInvalidatesOthers() {
+		for (int i = 0; i < 5; i++) {
+			queue.add(i);
+		}
+		Iterator<Integer> it = queue.iterator();
+		Iterator<Integer> other = queue.iterator();
+		it.next();
+		it.remove();
+		other.next();
+	}
+
+	@SuppressWarnings("unchecked")
+	private CircularArrayQueue<Integer> roundTrip(CircularArrayQueue<Integer> q, int[] length) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(q);
+		}
+		length[0] = bytes.size();
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return (CircularArrayQueue<Integer>) in.readObject();
+		}
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		int[] length = new int[1];
+		queue = new CircularArrayQueue<Integer>(1000000);
+		for (int i = 0; i < 10; i++) {
+			queue.add(i);
+			queue.remove();
+		}
+		for (int i = 0; i < 10; i++) {
+			queue.add(i);
+		}
+		queue.add(null);
+		CircularArrayQueue<Integer> copy = roundTrip(queue, length);
+		assertTrue(length[0] < 2000);
+		assertEquals(queue, copy);
+		assertEquals(11, copy.capacity());
+		copy.add(11);
+		assertEquals(11, (int) copy.peekLast());
+		assertEquals(0, (int) copy.remove());
+
+		queue = CircularArrayQueue.withPowerOfTwoCapacity(64);
+		queue.setIndexed(true);
+		for (int i = 0; i < 70; i++) {
+			queue.add(i);
+			queue.remove();
+		}
+		for (int i = 0; i < 5; i++) {
+			queue.add(i);
+		}
+		copy = roundTrip(queue, length);
+		assertEquals(queue, copy);
+		assertEquals(8, copy.capacity());
+		assertTrue(copy.isIndexed());
+		assertTrue(copy.contains(4));
+		for (int i = 5; i < 20; i++) {
+			copy.add(i);
+		}
+		assertEquals(32, copy.capacity());
+
+		queue = CircularArrayQueue.bounded(4, OverflowPolicy.DROP_OLDEST);
+		for (int i = 0; i < 6; i++) {
+			queue.add(i);
+		}
+		copy = roundTrip(queue, length);
+		assertEquals(queue, copy);
+		assertEquals(4, copy.capacity());
+		copy.add(6);
+		assertTrue(Arrays.equals(new Object[] { 3, 4, 5, 6 }, copy.toArray()));
+		assertEquals(3, copy.dropped());
+	}
 }
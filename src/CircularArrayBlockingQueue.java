@@ -0,0 +1,663 @@
+import java.io.Serializable;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * {@code BlockingQueue} backed by a {@code CircularArrayQueue}, optionally
+ * bounded, so it can be used as the work queue of a {@code ThreadPoolExecutor}
+ * or to hand work between threads.
+ *
+ * All access to the ring is guarded by a single {@code ReentrantLock}, and
+ * waiting producers and consumers park on its {@code notFull} and
+ * {@code notEmpty} conditions. No {@code synchronized} blocks or monitor
+ * waits are used, so a virtual thread which blocks in {@code put} or
+ * {@code take} unmounts from its carrier thread instead of pinning it.
+ *
+ * A bounded queue can be given an {@code OverflowPolicy} deciding what the
+ * non-blocking {@code offer} and {@code add} do while the queue is full. The
+ * default, {@code REJECT}, follows the {@code BlockingQueue} interface. With
+ * {@code BLOCK} they wait for room as {@code put} does, and with the two
+ * dropping policies no method ever waits for room, {@code put} included.
+ *
+ * The iterator works on a snapshot of the queue taken when it is created, and
+ * never throws {@code ConcurrentModificationException}. Null elements are not
+ * permitted.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue
+ * @see BlockingQueue
+ * @param <T>
+ *            Type of object to be stored in the queue
+ */
+public class CircularArrayBlockingQueue<T> extends AbstractQueue<T> implements BlockingQueue<T>, Serializable {
+
+	/**
+	 * Generated serial ID for serialization of this collection.
+	 */
+	private static final long serialVersionUID = 6190617354128730311L;
+
+	/**
+	 * The default initial capacity of the ring when none is provided by the
+	 * user.
+	 */
+	private static final int DEFAULT_CAPACITY = 10;
+
+	/**
+	 * The ring holding the elements, only accessed while holding the lock.
+	 */
+	private final CircularArrayQueue<T> ring;
+
+	/**
+	 * Maximum number of elements the queue may hold.
+	 */
+	private final int bound;
+
+	/**
+	 * What to do with an element added while the queue is full.
+	 */
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * Number of elements dropped or refused because the queue was full, only
+	 * accessed while holding the lock.
+	 */
+	private long dropped = 0;
+
+	/**
+	 * Lock guarding every access to the ring.
+	 */
+	private final ReentrantLock lock;
+
+	/**
+	 * Condition waited on by consumers while the queue is empty.
+	 */
+	private final Condition notEmpty;
+
+	/**
+	 * Condition waited on by producers while the queue is full.
+	 */
+	private final Condition notFull;
+
+	/**
+	 * Used to create a queue which holds at most {@code bound} elements, and
+	 * handles elements added while it is full according to the given policy.
+	 *
+	 * @param bound
+	 *            The maximum number of elements in the queue
+	 * @param fair
+	 *            If true, blocked threads are woken in the order they started
+	 *            waiting, as with a fair {@code ReentrantLock}
+	 * @param overflowPolicy
+	 *            What to do with an element added while the queue is full
+	 */
+	public CircularArrayBlockingQueue(int bound, boolean fair, OverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null) {
+			throw new NullPointerException();
+		}
+		if (bound <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.bound = bound;
+		this.overflowPolicy = overflowPolicy;
+		ring = new CircularArrayQueue<>(Math.min(bound, DEFAULT_CAPACITY));
+		lock = new ReentrantLock(fair);
+		notEmpty = lock.newCondition();
+		notFull = lock.newCondition();
+	}
+
+	/**
+	 * Used to create a queue which holds at most {@code bound} elements.
+	 *
+	 * @param bound
+	 *            The maximum number of elements in the queue
+	 * @param fair
+	 *            If true, blocked threads are woken in the order they started
+	 *            waiting, as with a fair {@code ReentrantLock}
+	 */
+	public CircularArrayBlockingQueue(int bound, boolean fair) {
+		this(bound, fair, OverflowPolicy.REJECT);
+	}
+
+	/**
+	 * Used to create a queue which holds at most {@code bound} elements.
+	 *
+	 * @param bound
+	 *            The maximum number of elements in the queue
+	 */
+	public CircularArrayBlockingQueue(int bound) {
+		this(bound, false);
+	}
+
+	/**
+	 * Used to create an unbounded queue, which grows like a
+	 * {@code CircularArrayQueue}. {@code put} never blocks on such a queue.
+	 */
+	public CircularArrayBlockingQueue() {
+		this(Integer.MAX_VALUE, false);
+	}
+
+	/**
+	 * Constructor to create an unbounded queue holding the elements of the
+	 * given collection, in the order of its iterator.
+	 *
+	 * @param c
+	 *            The collection from which to add all elements from initially
+	 */
+	public CircularArrayBlockingQueue(Collection<? extends T> c) {
+		this(Integer.MAX_VALUE, false);
+		for (T e : c) {
+			if (e == null) {
+				throw new NullPointerException();
+			}
+			ring.add(e);
+		}
+	}
+
+	/**
+	 * Adds an element to the ring and wakes a waiting consumer. Must be called
+	 * while holding the lock, with room in the queue.
+	 */
+	private void enqueue(T e) {
+		ring.add(e);
+		notEmpty.signal();
+	}
+
+	/**
+	 * Removes the head of the ring and wakes a waiting producer. Must be
+	 * called while holding the lock, with an element in the queue.
+	 */
+	private T dequeue() {
+		T o = ring.remove();
+		notFull.signal();
+		return o;
+	}
+
+	/**
+	 * Applies a policy which does not wait to an element added while the queue
+	 * is full. Must be called while holding the lock.
+	 *
+	 * @return True if the head was dropped to make room for the element, false
+	 *         if the element itself was dropped
+	 */
+	private boolean overflow(T e) {
+		dropped++;
+		if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+			ring.remove();
+			ring.add(e);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Used to check whether adding to a full queue waits for room under the
+	 * overflow policy, rather than dropping an element.
+	 */
+	private boolean waitsForRoom() {
+		return overflowPolicy == OverflowPolicy.REJECT || overflowPolicy == OverflowPolicy.BLOCK;
+	}
+
+	/**
+	 * Used to access the number of elements dropped or refused because the
+	 * queue was full. Elements which {@code put} or a timed {@code offer}
+	 * waited for room for are not counted, unless the wait timed out.
+	 *
+	 * @return The number of elements dropped so far
+	 */
+	public long dropped() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(T e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		lock.lock();
+		try {
+			if (ring.size() == bound) {
+				if (overflowPolicy != OverflowPolicy.BLOCK) {
+					return overflow(e);
+				}
+				try {
+					while (ring.size() == bound) {
+						notFull.await();
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					dropped++;
+					return false;
+				}
+			}
+			enqueue(e);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.BlockingQueue#add(java.lang.Object)
+	 */
+	@Override
+	public boolean add(T e) {
+		if (offer(e)) {
+			return true;
+		}
+		if (overflowPolicy == OverflowPolicy.REJECT) {
+			throw new IllegalStateException("Queue full");
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+	 */
+	@Override
+	public void put(T e) throws InterruptedException {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		lock.lockInterruptibly();
+		try {
+			if (ring.size() == bound && !waitsForRoom()) {
+				overflow(e);
+				return;
+			}
+			while (ring.size() == bound) {
+				notFull.await();
+			}
+			enqueue(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long,
+	 * java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public boolean offer(T e, long timeout, TimeUnit unit) throws InterruptedException {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			if (ring.size() == bound && !waitsForRoom()) {
+				return overflow(e);
+			}
+			while (ring.size() == bound) {
+				if (nanos <= 0) {
+					dropped++;
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			enqueue(e);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#poll()
+	 */
+	@Override
+	public T poll() {
+		lock.lock();
+		try {
+			return ring.isEmpty() ? null : dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.BlockingQueue#take()
+	 */
+	@Override
+	public T take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (ring.isEmpty()) {
+				notEmpty.await();
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.BlockingQueue#poll(long,
+	 * java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (ring.isEmpty()) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#peek()
+	 */
+	@Override
+	public T peek() {
+		lock.lock();
+		try {
+			return ring.peek();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#size()
+	 */
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return ring.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+	 */
+	@Override
+	public int remainingCapacity() {
+		lock.lock();
+		try {
+			return bound - ring.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+	 */
+	@Override
+	public int drainTo(Collection<? super T> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection,
+	 * int)
+	 */
+	@Override
+	public int drainTo(Collection<? super T> c, int maxElements) {
+		if (c == null) {
+			throw new NullPointerException();
+		}
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		if (maxElements <= 0) {
+			return 0;
+		}
+		lock.lock();
+		try {
+			int n = 0;
+			try {
+				while (n < maxElements && !ring.isEmpty()) {
+					c.add(ring.peek());
+					ring.remove();
+					n++;
+				}
+			} finally {
+				if (n == 1) {
+					notFull.signal();
+				} else if (n > 1) {
+					notFull.signalAll();
+				}
+			}
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#contains(java.lang.Object)
+	 */
+	@Override
+	public boolean contains(Object o) {
+		lock.lock();
+		try {
+			return ring.contains(o);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#remove(java.lang.Object)
+	 */
+	@Override
+	public boolean remove(Object o) {
+		if (o == null) {
+			return false;
+		}
+		lock.lock();
+		try {
+			if (ring.remove(o)) {
+				notFull.signal();
+				return true;
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the given element, compared by identity rather than equality, so
+	 * that the snapshot iterator removes exactly the element it handed out.
+	 *
+	 * @param o
+	 *            The element to remove
+	 */
+	private void removeIdentical(Object o) {
+		lock.lock();
+		try {
+			Iterator<T> it = ring.iterator();
+			while (it.hasNext()) {
+				if (it.next() == o) {
+					it.remove();
+					notFull.signal();
+					return;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#clear()
+	 */
+	@Override
+	public void clear() {
+		lock.lock();
+		try {
+			ring.clear();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#toArray()
+	 */
+	@Override
+	public Object[] toArray() {
+		lock.lock();
+		try {
+			return ring.toArray();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#toArray(java.lang.Object[])
+	 */
+	@Override
+	public <E> E[] toArray(E[] a) {
+		lock.lock();
+		try {
+			return ring.toArray(a);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Iterator over a snapshot of the queue. Removing through the iterator
+	 * removes the element last returned from the live queue, if it is still
+	 * there.
+	 */
+	private class It implements Iterator<T> {
+
+		/**
+		 * Elements of the queue when the iterator was created.
+		 */
+		private final Object[] snapshot = toArray();
+
+		/**
+		 * Index of the next element of the snapshot to hand out.
+		 */
+		private int p = 0;
+
+		/**
+		 * Index of the element last handed out, or -1 if there is none to
+		 * remove.
+		 */
+		private int last = -1;
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return p < snapshot.length;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if (p >= snapshot.length) {
+				throw new NoSuchElementException();
+			}
+			last = p;
+			return (T) snapshot[p++];
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#remove()
+		 */
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			removeIdentical(snapshot[last]);
+			last = -1;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#iterator()
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new It();
+	}
+}
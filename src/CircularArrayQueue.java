@@ -1,10 +1,24 @@
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  *
@@ -21,18 +35,30 @@ import java.util.Queue;
  * Provides constant time access for {@code size}, {@code add} (although this is
  * amortized constant time), {@code remove} operations.
  *
+ * Also implements {@code Deque}, so elements can be added at the head and
+ * removed from the tail in constant time as well, for use as a stack or for
+ * taking work from the back of the queue.
+ *
+ * Grows by doubling its capacity unless given a {@code GrowthPolicy}, either
+ * when created with {@link #CircularArrayQueue(int, GrowthPolicy)} or later
+ * with {@link #setGrowthPolicy(GrowthPolicy)}, which also covers the queues
+ * made by the other constructors and the factory methods.
+ *
  * @author David Brown
  * @see Queue
+ * @see Deque
  * @see Collection
  * @param <T>
  *            Type of object to be stored in the CircularArrayQueue
  */
-public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable, Iterable<T> {
+public class CircularArrayQueue<T> implements Deque<T>, Serializable, Cloneable, Iterable<T> {
 
 	/**
-	 * Generated serial ID for serialization of this collection.
+	 * Generated serial ID for serialization of this collection. Changed when
+	 * the serialized form became the live elements only, as streams in the
+	 * old form of the whole array cannot be read by {@code readObject}.
 	 */
-	private static final long serialVersionUID = -2675072648272502131L;
+	private static final long serialVersionUID = 5302764383516874137L;
 
 	/**
 	 * The default capacity of the queue when none is provided by the user.
@@ -45,17 +71,24 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 	 */
 	private static final Object[] EMPTY_ELEMENTS = {};
 
+	/**
+	 * Size above which a collection given to {@code removeAll} or
+	 * {@code retainAll} is copied into a {@code HashSet} first, unless it is a
+	 * set already, so each lookup takes constant time instead of a scan.
+	 */
+	private static final int HASH_THRESHOLD = 16;
+
 	/**
 	 * Underlying array storing elements which have been added to the queue.
 	 */
-	private T[] elements;
+	private transient T[] elements;
 
 	/**
 	 * Current capacity of the queue (equal to the size of the elements array,
 	 * not necessarily equal to the number of visible elements in the queue to
 	 * the user).
 	 */
-	private int capacity;
+	private transient int capacity;
 
 	/**
 	 * Location of the tail pointer, will point to the same element as the head
@@ -64,26 +97,101 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 	 * element after the last accessible element in the queue, i.e. the one that
 	 * will be replaced next upon an {@code add(T e)} method call.
 	 */
-	private int tail = 0;
+	private transient int tail = 0;
 
 	/**
 	 * Current location of the head pointer. Points to the next element in the
 	 * array to be removed, so the first element which is accessible via the
 	 * normal {@code remove} method from the queue interface.
 	 */
-	private int head = 0;
+	private transient int head = 0;
 
 	/**
 	 * Current size or number of elements in the queue. Equal to the number of
 	 * accessible elements, not the size of the underlying array
 	 */
-	private int size = 0;
+	private transient int size = 0;
 
 	/**
 	 * Number of modifications made to the elements in this queue. For use when
 	 * checking for {@code ConcurrentModificationException}s to be thrown
 	 */
-	private int mods = 0;
+	private transient int mods = 0;
+
+	/**
+	 * True if the capacity is always kept at a power of two, in which case
+	 * indices are wrapped with {@code mask} rather than compared against the
+	 * capacity. Set by {@code withPowerOfTwoCapacity}.
+	 */
+	private boolean powerOfTwo = false;
+
+	/**
+	 * One less than the capacity. Used to wrap indices when the queue is in
+	 * power of two mode.
+	 */
+	private transient int mask;
+
+	/**
+	 * Maximum number of elements the queue may hold. Set by {@code bounded}.
+	 */
+	private int bound = Integer.MAX_VALUE;
+
+	/**
+	 * What to do with an element added while the queue holds {@code bound}
+	 * elements, or null if the queue is unbounded.
+	 */
+	private OverflowPolicy overflowPolicy;
+
+	/**
+	 * Number of elements dropped or refused by the overflow policy.
+	 */
+	private long dropped = 0;
+
+	/**
+	 * Number of times each element occurs in the queue, kept up to date by
+	 * every method which adds or removes elements, or null unless the queue is
+	 * indexed. See {@code setIndexed}.
+	 */
+	private transient HashMap<Object, Integer> counts;
+
+	/**
+	 * True if {@code hashCode} keeps the hash it computes until the queue is
+	 * next modified. See {@code setHashCached}.
+	 */
+	private boolean hashCached = false;
+
+	/**
+	 * The last hash computed while {@code hashCached} is set.
+	 */
+	private transient int hash;
+
+	/**
+	 * Modification count when {@code hash} was computed.
+	 */
+	private transient int hashMods;
+
+	/**
+	 * True if {@code hash} may be used, as long as the modification count has
+	 * not changed since. Cleared by {@code set}, which replaces an element
+	 * without counting as a modification.
+	 */
+	private transient boolean hashValid;
+
+	/**
+	 * Decides how far the queue grows when it runs out of room.
+	 */
+	private GrowthPolicy growthPolicy = GrowthPolicy.doubling();
+
+	/**
+	 * Decides when the queue gives memory back as elements are removed.
+	 */
+	private ShrinkPolicy shrinkPolicy = ShrinkPolicy.never();
+
+	/**
+	 * Size below which the queue shrinks, as given by the shrink policy for the
+	 * current capacity. Recomputed whenever the capacity changes.
+	 */
+	private transient int shrinkThreshold = 0;
 
 	/**
 	 * Used to create a queue with an initial capacity, useful if the user knows
@@ -107,6 +215,21 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 		}
 	}
 
+	/**
+	 * Used to create a queue with an initial capacity and a policy deciding
+	 * how far the queue grows each time it runs out of room, in place of the
+	 * default of doubling.
+	 *
+	 * @param initialCapacity
+	 *            The capacity with which to create the queue
+	 * @param growthPolicy
+	 *            The policy giving the new capacity on each resize
+	 */
+	public CircularArrayQueue(int initialCapacity, GrowthPolicy growthPolicy) {
+		this(initialCapacity);
+		setGrowthPolicy(growthPolicy);
+	}
+
 	/**
 	 * Used to specify a collection to add to the queue initially, along with an
 	 * initial capacity. The inial capacity is not allowed to be smaller than
@@ -169,6 +292,65 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 		capacity = DEFAULT_CAPACITY;
 	}
 
+	/**
+	 * Used to create a queue whose capacity is always a power of two. Such a
+	 * queue wraps its head, tail and iterator indices with a mask instead of
+	 * comparing them against the capacity, so adding and removing have no
+	 * wraparound branches, at the cost of rounding every resize up to the
+	 * next power of two.
+	 *
+	 * @param initialCapacity
+	 *            The capacity with which to create the queue, rounded up to the
+	 *            next power of two
+	 * @return The new, empty queue
+	 */
+	public static <T> CircularArrayQueue<T> withPowerOfTwoCapacity(int initialCapacity) {
+		CircularArrayQueue<T> q = new CircularArrayQueue<>(powerOfTwoCapacity(initialCapacity));
+		q.powerOfTwo = true;
+		q.mask = q.capacity - 1;
+		return q;
+	}
+
+	/**
+	 * Used to create a queue which holds at most {@code bound} elements, for
+	 * use as a buffer which must not grow without limit. The underlying array
+	 * is allocated at the full bound up front, so adding never resizes it.
+	 *
+	 * @param bound
+	 *            The maximum number of elements in the queue
+	 * @param overflowPolicy
+	 *            What to do with an element added while the queue is full.
+	 *            {@code BLOCK} is not supported, as nothing else could make
+	 *            room while the adding thread waits
+	 * @return The new, empty queue
+	 */
+	public static <T> CircularArrayQueue<T> bounded(int bound, OverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null) {
+			throw new NullPointerException();
+		}
+		if (bound <= 0 || overflowPolicy == OverflowPolicy.BLOCK) {
+			throw new IllegalArgumentException();
+		}
+		CircularArrayQueue<T> q = new CircularArrayQueue<>(bound);
+		q.bound = bound;
+		q.overflowPolicy = overflowPolicy;
+		return q;
+	}
+
+	/**
+	 * Rounds a capacity up to the next power of two.
+	 *
+	 * @param cap
+	 *            The capacity to round
+	 * @return The smallest power of two no smaller than {@code cap}, or 0
+	 */
+	private static int powerOfTwoCapacity(int cap) {
+		if (cap < 0 || cap > 1 << 30) {
+			throw new IllegalArgumentException();
+		}
+		return cap <= 1 ? cap : Integer.highestOneBit(cap - 1) << 1;
+	}
+
 	/**
 	 * Used to access the current capacity (size of underlying array).
 	 *
@@ -178,6 +360,154 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 		return capacity;
 	}
 
+	/**
+	 * Used to access the number of elements dropped or refused because the
+	 * queue was full, by any overflow policy.
+	 *
+	 * @return The number of elements dropped so far
+	 */
+	public long dropped() {
+		return dropped;
+	}
+
+	/**
+	 * Applies the overflow policy to an element added while the queue is full.
+	 *
+	 * @return True if room was made for the element, false if it is dropped
+	 */
+	private boolean makeRoom() {
+		dropped++;
+		if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+			remove();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Used to turn the hash index of the queue on or off. An indexed queue
+	 * keeps a count of each distinct element in a {@code HashMap} alongside
+	 * the ring, so {@code contains} takes constant time and
+	 * {@code containsAll} time linear in the size of its argument, rather than
+	 * scanning the queue. {@code remove(Object)} returns straight away for an
+	 * element which is not in the queue. The price is a hash map update on
+	 * every addition and removal, and the memory for the map. Elements must
+	 * have {@code hashCode} consistent with {@code equals}.
+	 *
+	 * @param indexed
+	 *            True to build and maintain the index, false to drop it
+	 */
+	public void setIndexed(boolean indexed) {
+		if (!indexed) {
+			counts = null;
+		} else if (counts == null) {
+			counts = new HashMap<>();
+			for (int i = 0, h = head; i < size; i++, h = inc(h)) {
+				count(elements[h]);
+			}
+		}
+	}
+
+	/**
+	 * Used to check whether the queue keeps a hash index of its elements.
+	 *
+	 * @return True if the queue is indexed
+	 */
+	public boolean isIndexed() {
+		return counts != null;
+	}
+
+	/**
+	 * Adds an element to the index, if the queue is indexed.
+	 */
+	private void count(Object e) {
+		if (counts != null) {
+			counts.merge(e, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Removes one occurrence of an element from the index, if the queue is
+	 * indexed.
+	 */
+	private void uncount(Object e) {
+		if (counts != null) {
+			counts.computeIfPresent(e, (k, n) -> n == 1 ? null : n - 1);
+		}
+	}
+
+	/**
+	 * Used to turn caching of the hash code on or off. A queue used as a map
+	 * key, or an unchanging snapshot hashed repeatedly, can keep its hash code
+	 * rather than walk every element each time it is asked for it. The cached
+	 * hash is dropped as soon as the queue is modified. Elements must not be
+	 * mutated in a way that changes their own hash codes while cached.
+	 *
+	 * @param cached
+	 *            True to cache the hash code
+	 */
+	public void setHashCached(boolean cached) {
+		hashCached = cached;
+		hashValid = false;
+	}
+
+	/**
+	 * Used to set the policy deciding how far the queue grows its underlying
+	 * array each time it runs out of room. Works for a queue made by any
+	 * constructor or factory, all of which start out doubling unless given a
+	 * policy by {@link #CircularArrayQueue(int, GrowthPolicy)}.
+	 *
+	 * @param policy
+	 *            The growth policy to use from now on
+	 */
+	public void setGrowthPolicy(GrowthPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException();
+		}
+		growthPolicy = policy;
+	}
+
+	/**
+	 * Used to set the policy deciding when the queue shrinks its underlying
+	 * array as elements are removed. New queues never shrink.
+	 *
+	 * @param policy
+	 *            The shrink policy to use from now on
+	 */
+	public void setShrinkPolicy(ShrinkPolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException();
+		}
+		shrinkPolicy = policy;
+		shrinkThreshold = policy.threshold(capacity);
+	}
+
+	/**
+	 * Shrinks the underlying array to the smallest capacity that holds the
+	 * current elements (the next power of two in power of two mode), giving
+	 * back any memory left over from when the queue was larger.
+	 */
+	public void trimToSize() {
+		int newCap = powerOfTwo ? powerOfTwoCapacity(size) : size;
+		if (newCap < capacity) {
+			resize(newCap);
+			mods++;
+		}
+	}
+
+	/**
+	 * Shrinks the underlying array as far as the shrink policy asks, once the
+	 * size has dropped below its threshold.
+	 */
+	private void shrink() {
+		int newCap = ensureCapacity(Math.max(size, shrinkPolicy.shrinkTo(size, capacity)));
+		if (newCap < capacity) {
+			resize(newCap);
+		} else {
+			shrinkThreshold = 0;
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -195,6 +525,9 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 	 */
 	@Override
 	public boolean contains(Object o) {
+		if (counts != null) {
+			return counts.containsKey(o);
+		}
 		Iterator<T> it = iterator();
 		if (o == null) {
 			while (it.hasNext()) {
@@ -259,9 +592,9 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 		/**
 		 * Expected modification count. If this is not equal to the underlying
 		 * queue's number of modifications, then we know that the queue has been
-		 * modified via the queue's methods, not the iterator's methods. This
-		 * iterator does not increment the queue's modification count upon
-		 * modification of the queue.
+		 * modified via the queue's methods, not the iterator's methods.
+		 * Removing through this iterator increments both, so that any other
+		 * iterator over the queue sees the change.
 		 */
 		private int xpm = mods;
 
@@ -289,9 +622,11 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 				throw new ConcurrentModificationException();
 			}
 			calledNext = true;
-			T o = elements[p++];
+			T o = elements[p];
 			nextCount++;
-			if (p == capacity && tail != capacity) {
+			if (powerOfTwo) {
+				p = (p + 1) & mask;
+			} else if (++p == capacity && tail != capacity) {
 				p = 0;
 			}
 			return o;
@@ -311,18 +646,11 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 				throw new ConcurrentModificationException();
 			}
 			int prev = p - 1 < 0 ? capacity - 1 : p - 1;
-			if (head <= tail) {
-				System.arraycopy(elements, p, elements, prev, tail - prev);
-			} else {
-				System.arraycopy(elements, p, elements, prev, capacity - prev);
-				elements[capacity - 1] = elements[0];
-				System.arraycopy(elements, 1, elements, 0, tail);
+			if (delete(prev)) {
+				p = prev;
 			}
-			elements[tail] = null;
-			tail = tail - 1 < 0 ? capacity - 1 : tail - 1;
-			p = p - 1 < 0 ? capacity - 1 : p - 1;
-			size--;
 			calledNext = false;
+			xpm = ++mods;
 		}
 
 	}
@@ -337,96 +665,353 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 		return new It();
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see java.util.Collection#toArray()
+	/**
+	 * Iterator from the tail of the queue back to the head. Like {@code It}
+	 * it is fail-fast, and increments the queue's modification count when
+	 * removing.
 	 */
-	@Override
-	public Object[] toArray() {
-		Object[] a = new Object[size];
-		if (size == 0) {
-			return a;
-		}
-		if (head < tail) {
-			System.arraycopy(elements, head, a, 0, size);
-		} else {
-			System.arraycopy(elements, head, a, 0, capacity - head);
-			System.arraycopy(elements, 0, a, capacity - head, tail);
-		}
-		return a;
-	}
+	private class DescIt implements Iterator<T> {
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see java.util.Collection#toArray(java.lang.Object[])
-	 */
-	@SuppressWarnings("unchecked")
-	@Override
-	public <E> E[] toArray(E[] a) {
-		if (a == null) {
-			throw new NullPointerException();
-		}
-		if (a.length < size) {
-			a = (E[]) java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), size);
-		}
-		if (size == 0) {
-			return a;
-		}
-		if (head < tail) {
-			System.arraycopy(elements, head, a, 0, size);
-		} else {
-			System.arraycopy(elements, head, a, 0, capacity - head);
-			System.arraycopy(elements, 0, a, capacity - head, tail);
-		}
-		if (a.length > size) {
-			a[size] = null;
+		/**
+		 * Index of the next element to be accessed.
+		 */
+		private int p = size == 0 ? 0 : last();
+
+		/**
+		 * Number of elements not yet handed out.
+		 */
+		private int remaining = size;
+
+		/**
+		 * Index of the element last handed out, or -1 if there is none to
+		 * remove.
+		 */
+		private int lastRet = -1;
+
+		/**
+		 * Expected modification count.
+		 */
+		private int xpm = mods;
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
 		}
-		return a;
-	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see java.util.Collection#remove(java.lang.Object)
-	 */
-	@Override
-	public boolean remove(Object o) {
-		if (size == 0) {
-			return false;
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public T next() {
+			if (remaining <= 0) {
+				throw new NoSuchElementException();
+			}
+			if (xpm != mods) {
+				throw new ConcurrentModificationException();
+			}
+			lastRet = p;
+			T o = elements[p];
+			p = dec(p);
+			remaining--;
+			return o;
 		}
-		Iterator<T> it = iterator();
-		if (o == null) {
-			while (it.hasNext()) {
-				if (it.next() == null) {
-					it.remove();
-					mods++;
-					return true;
-				}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#remove()
+		 */
+		@Override
+		public void remove() {
+			if (lastRet < 0) {
+				throw new IllegalStateException();
 			}
-		} else {
-			while (it.hasNext()) {
-				if (o.equals(it.next())) {
-					it.remove();
-					mods++;
-					return true;
-				}
+			if (xpm != mods) {
+				throw new ConcurrentModificationException();
 			}
+			if (!delete(lastRet)) {
+				p = lastRet;
+			}
+			lastRet = -1;
+			xpm = ++mods;
 		}
-		return false;
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see java.util.Collection#containsAll(java.util.Collection)
+	/**
+	 * Spliterator over the two contiguous segments of the array, from the head
+	 * to the end of the array and then from the start of the array to the
+	 * tail. Splits in half by position, so both halves are at most two
+	 * segments each, and checks for concurrent modification once per
+	 * traversal rather than once per element, as {@code ArrayList} does.
 	 */
-	@Override
-	public boolean containsAll(Collection<?> c) {
-		if (c == null) {
-			throw new NullPointerException();
-		}
+	private class Spl implements Spliterator<T> {
+
+		/**
+		 * The underlying array when the spliterator was created.
+		 */
+		private final T[] a = elements;
+
+		/**
+		 * Index of the head, and capacity, when the spliterator was created.
+		 */
+		private final int h = head, cap = capacity;
+
+		/**
+		 * Range of positions, counted from the head, still to be traversed.
+		 */
+		private int lo, hi;
+
+		/**
+		 * Expected modification count.
+		 */
+		private final int xpm = mods;
+
+		private Spl(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+		 */
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (action == null) {
+				throw new NullPointerException();
+			}
+			if (lo >= hi) {
+				return false;
+			}
+			int i = lo++;
+			action.accept(a[i < cap - h ? h + i : i - (cap - h)]);
+			if (xpm != mods) {
+				throw new ConcurrentModificationException();
+			}
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see
+		 * java.util.Spliterator#forEachRemaining(java.util.function.Consumer)
+		 */
+		@Override
+		public void forEachRemaining(Consumer<? super T> action) {
+			if (action == null) {
+				throw new NullPointerException();
+			}
+			final T[] a = this.a;
+			final int wrap = cap - h;
+			int i = lo, end = hi;
+			lo = hi;
+			for (int first = Math.min(end, wrap); i < first; i++) {
+				action.accept(a[h + i]);
+			}
+			for (; i < end; i++) {
+				action.accept(a[i - wrap]);
+			}
+			if (xpm != mods) {
+				throw new ConcurrentModificationException();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#trySplit()
+		 */
+		@Override
+		public Spliterator<T> trySplit() {
+			int mid = (lo + hi) >>> 1;
+			if (mid <= lo) {
+				return null;
+			}
+			Spl prefix = new Spl(lo, mid);
+			lo = mid;
+			return prefix;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#estimateSize()
+		 */
+		@Override
+		public long estimateSize() {
+			return hi - lo;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Spliterator#characteristics()
+		 */
+		@Override
+		public int characteristics() {
+			return Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#spliterator()
+	 */
+	@Override
+	public Spliterator<T> spliterator() {
+		return new Spl(0, size);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Deque#descendingIterator()
+	 */
+	@Override
+	public Iterator<T> descendingIterator() {
+		return new DescIt();
+	}
+
+	/**
+	 * Removes the element at the given index of the array, closing the gap
+	 * from whichever side has fewer elements to move, as
+	 * {@code ArrayDeque.delete} does. Either the elements after it are shifted
+	 * back one slot towards the head, or the elements before it are shifted
+	 * forward one slot and the head moves up, so removing near either end
+	 * takes constant time.
+	 *
+	 * @param i
+	 *            Index of the element to remove, within the array
+	 * @return True if the elements after it were shifted back, false if the
+	 *         elements before it were shifted forward
+	 */
+	private boolean delete(int i) {
+		uncount(elements[i]);
+		int front = i >= head ? i - head : i + capacity - head;
+		if (front < size - 1 - front) {
+			if (head <= i) {
+				System.arraycopy(elements, head, elements, head + 1, i - head);
+			} else {
+				System.arraycopy(elements, 0, elements, 1, i);
+				elements[0] = elements[capacity - 1];
+				System.arraycopy(elements, head, elements, head + 1, capacity - 1 - head);
+			}
+			elements[head] = null;
+			head = inc(head);
+			size--;
+			return false;
+		}
+		int last = last();
+		if (i <= last) {
+			System.arraycopy(elements, i + 1, elements, i, last - i);
+		} else {
+			System.arraycopy(elements, i + 1, elements, i, capacity - 1 - i);
+			elements[capacity - 1] = elements[0];
+			System.arraycopy(elements, 1, elements, 0, last);
+		}
+		elements[last] = null;
+		tail = last;
+		size--;
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#toArray()
+	 */
+	@Override
+	public Object[] toArray() {
+		Object[] a = new Object[size];
+		copyTo(a);
+		return a;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#toArray(java.lang.Object[])
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <E> E[] toArray(E[] a) {
+		if (a == null) {
+			throw new NullPointerException();
+		}
+		if (a.length < size) {
+			a = (E[]) java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), size);
+		}
+		copyTo(a);
+		if (a.length > size) {
+			a[size] = null;
+		}
+		return a;
+	}
+
+	/**
+	 * Copies the elements of the queue, from head to tail, to the start of the
+	 * given array. The elements occupy at most two contiguous segments of the
+	 * ring, {@code head} up to the end of the array and then the start of the
+	 * array up to {@code tail}, so at most two copies are made.
+	 *
+	 * @param a
+	 *            The array to copy into, at least {@code size} long
+	 */
+	private void copyTo(Object[] a) {
+		int first = Math.min(size, capacity - head);
+		System.arraycopy(elements, head, a, 0, first);
+		System.arraycopy(elements, 0, a, first, size - first);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#remove(java.lang.Object)
+	 */
+	@Override
+	public boolean remove(Object o) {
+		if (size == 0 || (counts != null && !counts.containsKey(o))) {
+			return false;
+		}
+		Iterator<T> it = iterator();
+		if (o == null) {
+			while (it.hasNext()) {
+				if (it.next() == null) {
+					it.remove();
+					return true;
+				}
+			}
+		} else {
+			while (it.hasNext()) {
+				if (o.equals(it.next())) {
+					it.remove();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#containsAll(java.util.Collection)
+	 */
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		if (c == null) {
+			throw new NullPointerException();
+		}
 		Iterator<?> i = c.iterator();
 		while (i.hasNext()) {
 			if (!contains(i.next())) {
@@ -441,33 +1026,146 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 	 * 
 	 * @see java.util.Collection#addAll(java.util.Collection)
 	 */
-	@SuppressWarnings("rawtypes")
+	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public boolean addAll(Collection c) {
 		if (c == null) {
 			throw new NullPointerException();
 		}
-		int cs = c.size();
-		if (capacity < size + cs) {
-			resize(ensureCapacity((cs << 1) + capacity));
+		if (overflowPolicy != null) {
+			boolean changed = false;
+			for (Object o : c.toArray()) {
+				changed |= add((T) o);
+			}
+			return changed;
+		}
+		if (c instanceof CircularArrayQueue) {
+			CircularArrayQueue q = (CircularArrayQueue) c;
+			int n = q.size;
+			if (n == 0) {
+				return false;
+			}
+			int t = reserve(n);
+			int first = Math.min(n, q.capacity - q.head);
+			copyIn(q.elements, 0, copyIn(q.elements, q.head, t, first), n - first);
+			commit(t, n);
+			return true;
+		}
+		if (c instanceof List && c instanceof RandomAccess) {
+			List l = (List) c;
+			int n = l.size();
+			if (n == 0) {
+				return false;
+			}
+			int t = reserve(n);
+			int first = Math.min(n, capacity - t);
+			for (int i = 0; i < first; i++) {
+				elements[t + i] = (T) l.get(i);
+			}
+			for (int i = first; i < n; i++) {
+				elements[i - first] = (T) l.get(i);
+			}
+			commit(t, n);
+			return true;
 		}
 		Object[] a = c.toArray();
-		if (capacity - tail > cs) {
-			System.arraycopy(a, 0, elements, tail, a.length);
-		} else {
-			System.arraycopy(a, 0, elements, tail, capacity - tail);
-			System.arraycopy(a, capacity - tail, elements, capacity - tail, cs - (capacity - tail));
+		return offerAll((T[]) a, 0, a.length) != 0;
+	}
+
+	/**
+	 * Adds a range of the given array to the tail of the queue, in order. The
+	 * elements are copied straight into the ring with at most two array
+	 * copies, growing it first if needed, without the intermediate copy
+	 * {@code addAll} makes through {@code toArray}. On a bounded queue each
+	 * element is offered in turn, and the overflow policy applies to each.
+	 *
+	 * @param src
+	 *            The array holding the elements to add
+	 * @param offset
+	 *            Index of the first element to add
+	 * @param length
+	 *            Number of elements to add
+	 * @return The number of elements added
+	 */
+	public int offerAll(T[] src, int offset, int length) {
+		if (src == null) {
+			throw new NullPointerException();
 		}
-		final int oldTail = tail;
-		size += cs;
-		tail += cs;
-		if (tail > capacity) {
-			tail = cs - capacity + oldTail;
+		if (offset < 0 || length < 0 || offset > src.length - length) {
+			throw new IndexOutOfBoundsException();
 		}
-		if (oldTail != tail) {
-			mods++;
+		if (overflowPolicy != null) {
+			int added = 0;
+			for (int i = offset; i < offset + length; i++) {
+				if (offer(src[i])) {
+					added++;
+				}
+			}
+			return added;
+		}
+		if (length == 0) {
+			return 0;
+		}
+		int t = reserve(length);
+		copyIn(src, offset, t, length);
+		commit(t, length);
+		return length;
+	}
+
+	/**
+	 * Grows the queue if needed to make room for the given number of elements
+	 * after the tail.
+	 *
+	 * @param n
+	 *            The number of elements about to be added
+	 * @return The index the first of them should be stored at
+	 */
+	private int reserve(int n) {
+		if (capacity - size < n) {
+			grow(size + n);
 		}
-		return oldTail != tail;
+		return tail == capacity ? 0 : tail;
+	}
+
+	/**
+	 * Copies elements into the ring starting at the given index, wrapping
+	 * round to the start of the array, with at most two array copies.
+	 *
+	 * @param src
+	 *            The array to copy from
+	 * @param from
+	 *            Index in {@code src} of the first element to copy
+	 * @param t
+	 *            Index in the ring to copy the first element to
+	 * @param n
+	 *            Number of elements to copy, no more than the free slots
+	 * @return The index in the ring after the last element copied
+	 */
+	private int copyIn(Object[] src, int from, int t, int n) {
+		int first = Math.min(n, capacity - t);
+		System.arraycopy(src, from, elements, t, first);
+		System.arraycopy(src, from + first, elements, 0, n - first);
+		return first < n ? n - first : t + first;
+	}
+
+	/**
+	 * Takes in elements stored after the tail by {@code reserve} and
+	 * {@code copyIn}, moving the tail past them.
+	 *
+	 * @param t
+	 *            The index returned by {@code reserve}
+	 * @param n
+	 *            The number of elements stored
+	 */
+	private void commit(int t, int n) {
+		if (counts != null) {
+			for (int i = 0, j = t; i < n; i++, j = inc(j)) {
+				count(elements[j]);
+			}
+		}
+		size += n;
+		tail = wrap(t + n);
+		mods++;
 	}
 
 	/**
@@ -487,202 +1185,743 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 		if (newCap < 0) {
 			throw new IllegalStateException();
 		}
-		T[] newElements = (T[]) new Object[newCap];
-		if (head < tail) {
-			System.arraycopy(elements, head, newElements, 0, size);
-		} else {
-			System.arraycopy(elements, head, newElements, 0, capacity - head);
-			System.arraycopy(elements, 0, newElements, capacity - head, tail);
+		T[] newElements = (T[]) new Object[newCap];
+		copyTo(newElements);
+		elements = newElements;
+		head = 0;
+		capacity = newCap;
+		mask = newCap - 1;
+		tail = powerOfTwo ? size & mask : size;
+		shrinkThreshold = shrinkPolicy.threshold(newCap);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#removeAll(java.util.Collection)
+	 */
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		return compareRemove(c, true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#retainAll(java.util.Collection)
+	 */
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		return compareRemove(c, false);
+	}
+
+	/**
+	 * Used to remove elements in this queue based on the elements in the given
+	 * collection. Iterates through reachable elements in the queue, and checks
+	 * if the given collection also has this element. If it does, and the flag
+	 * is true, this current element from the queue is removed, if the flag is
+	 * false, then it is kept. The reverse is also true. If the collection does
+	 * not have this element, and the flag is true, the element is kept,
+	 * otherwise if the collection does not have this element, and the flag is
+	 * false, this element is removed.
+	 *
+	 * A collection larger than {@code HASH_THRESHOLD} which is not a set is
+	 * first copied into a {@code HashSet}, so a large list argument costs one
+	 * pass over it rather than a scan of it for every element of the queue.
+	 *
+	 * @param c
+	 *            The collection from which to compare this queue's elements.
+	 * @param mod
+	 *            The flag to specify removal of an element of not based on if
+	 *            the given collection has the same element
+	 * @return Returns true if the queue was modified, false if it was not
+	 */
+	private boolean compareRemove(Collection<?> c, boolean mod) {
+		if (c == null) {
+			throw new NullPointerException();
+		}
+		final Collection<?> s = c instanceof Set || c.size() <= HASH_THRESHOLD ? c : new HashSet<>(c);
+		return removeWhere(e -> s.contains(e) == mod);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#removeIf(java.util.function.Predicate)
+	 */
+	@Override
+	public boolean removeIf(Predicate<? super T> filter) {
+		if (filter == null) {
+			throw new NullPointerException();
+		}
+		return removeWhere(filter);
+	}
+
+	/**
+	 * Removes every element matching the filter in a single pass, moving each
+	 * element kept back over the gaps left by those removed. If the filter
+	 * throws, the elements it has not yet been tested on are kept, so the
+	 * queue is left consistent.
+	 *
+	 * @param filter
+	 *            Returns true for the elements to remove
+	 * @return Returns true if the queue was modified, false if it was not
+	 */
+	private boolean removeWhere(Predicate<? super T> filter) {
+		int h = head, p = head, kept = 0, cnt = 0, removed = 0;
+		try {
+			for (; cnt < size; cnt++, h = inc(h)) {
+				T e = elements[h];
+				if (!filter.test(e)) {
+					elements[p] = e;
+					p = inc(p);
+					kept++;
+				} else {
+					uncount(e);
+				}
+			}
+		} finally {
+			for (; cnt < size; cnt++, h = inc(h)) {
+				elements[p] = elements[h];
+				p = inc(p);
+				kept++;
+			}
+			removed = size - kept;
+			if (removed != 0) {
+				for (int i = kept; i < size; i++, p = inc(p)) {
+					elements[p] = null;
+				}
+				tail = wrap(head + kept);
+				size = kept;
+				mods++;
+				if (size < shrinkThreshold) {
+					shrink();
+				}
+			}
+		}
+		return removed != 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#clear()
+	 */
+	@Override
+	public void clear() {
+		int first = Math.min(size, capacity - head);
+		Arrays.fill(elements, head, head + first, null);
+		Arrays.fill(elements, 0, size - first, null);
+		tail = 0;
+		head = 0;
+		size = 0;
+		mods++;
+		if (counts != null) {
+			counts.clear();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#add(java.lang.Object)
+	 */
+	@Override
+	public boolean add(T e) {
+		if (size >= bound && !makeRoom()) {
+			if (overflowPolicy == OverflowPolicy.REJECT) {
+				throw new IllegalStateException();
+			}
+			return false;
+		}
+		if (powerOfTwo) {
+			if (size == capacity) {
+				grow(size + 1);
+			}
+			mods++;
+			elements[tail] = e;
+			count(e);
+			tail = (tail + 1) & mask;
+			size++;
+			return true;
+		}
+		if (tail == capacity) {
+			tail = 0;
+		}
+		if ((tail == head && size != 0) || capacity == 0) {
+			grow(size + 1);
+		}
+		mods++;
+		elements[tail++] = e;
+		count(e);
+		size++;
+		return true;
+	}
+
+	/**
+	 * Resizes the underlying array to the capacity given by the growth policy,
+	 * once adding elements would need more room than there is.
+	 *
+	 * @param minCapacity
+	 *            The capacity needed to hold the elements being added, negative
+	 *            if working it out overflowed
+	 */
+	private void grow(int minCapacity) {
+		if (minCapacity < 0) {
+			throw new IllegalStateException();
+		}
+		int newCap = Math.min(growthPolicy.grow(capacity, minCapacity), bound);
+		newCap = powerOfTwo ? powerOfTwoWithin(newCap) : ensureCapacity(newCap);
+		if (newCap < minCapacity) {
+			throw new IllegalStateException();
+		}
+		resize(newCap);
+	}
+
+	/**
+	 * Rounds a capacity given by the growth policy to a power of two, up if
+	 * the policy and the bound allow the larger capacity, and otherwise down,
+	 * so that a capped policy is never exceeded.
+	 *
+	 * @param newCap
+	 *            The capacity given by the growth policy, at least 1
+	 * @return The power of two to grow to
+	 */
+	private int powerOfTwoWithin(int newCap) {
+		int up = powerOfTwoCapacity(Math.min(newCap, 1 << 30));
+		if (up == newCap) {
+			return up;
+		}
+		if (up <= bound) {
+			try {
+				if (growthPolicy.grow(capacity, up) >= up) {
+					return up;
+				}
+			} catch (IllegalStateException e) {
+				// the policy is capped below the rounded up capacity
+			}
+		}
+		return Integer.highestOneBit(newCap);
+	}
+
+	private int ensureCapacity(int newCapacity) {
+		if (newCapacity == 0) {
+			return 1;
+		}
+		return powerOfTwo && newCapacity > 0 ? powerOfTwoCapacity(Math.min(newCapacity, 1 << 30)) : newCapacity;
+	}
+
+	/**
+	 * Moves an index one slot back, wrapping round to the end of the array.
+	 *
+	 * @param i
+	 *            The index to move, within the array
+	 * @return The previous index
+	 */
+	private int dec(int i) {
+		return powerOfTwo ? (i - 1) & mask : i == 0 ? capacity - 1 : i - 1;
+	}
+
+	/**
+	 * Used to find the index of the element at the tail of the queue, which
+	 * must not be empty.
+	 *
+	 * @return The index of the last element
+	 */
+	private int last() {
+		return tail == 0 ? capacity - 1 : tail - 1;
+	}
+
+	/**
+	 * Moves an index one slot forward, wrapping back to the start of the
+	 * array.
+	 *
+	 * @param i
+	 *            The index to move, within the array
+	 * @return The next index
+	 */
+	private int inc(int i) {
+		return powerOfTwo ? (i + 1) & mask : i + 1 == capacity ? 0 : i + 1;
+	}
+
+	/**
+	 * Maps a position which may have run up to one lap past the end of the
+	 * array back onto it. Positions equal to the capacity are left alone
+	 * outside of power of two mode, matching how {@code add} leaves the tail.
+	 *
+	 * @param i
+	 *            The position to wrap, less than twice the capacity
+	 * @return The index within the array
+	 */
+	private int wrap(int i) {
+		return powerOfTwo ? i & mask : i > capacity ? i - capacity : i;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(T e) {
+		if (size >= bound && !makeRoom()) {
+			return false;
+		}
+		return add(e);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#remove()
+	 */
+	@Override
+	public T remove() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		mods++;
+		T o = elements[head];
+		elements[head] = null;
+		uncount(o);
+		if (powerOfTwo) {
+			head = (head + 1) & mask;
+		} else if (++head == capacity) {
+			head = 0;
+		}
+		size--;
+		if (size < shrinkThreshold) {
+			shrink();
 		}
-		elements = newElements;
-		head = 0;
-		tail = size;
-		capacity = newCap;
+		return o;
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see java.util.Collection#removeAll(java.util.Collection)
+	 * @see java.util.Queue#poll()
 	 */
 	@Override
-	public boolean removeAll(Collection<?> c) {
-		return compareRemove(c, true);
+	public T poll() {
+		return size == 0 ? null : remove();
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see java.util.Collection#retainAll(java.util.Collection)
+	 * @see java.util.Queue#element()
 	 */
 	@Override
-	public boolean retainAll(Collection<?> c) {
-		return compareRemove(c, false);
+	public T element() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return elements[head];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#peek()
+	 */
+	@Override
+	public T peek() {
+		return size == 0 ? null : elements[head];
 	}
 
 	/**
-	 * Used to remove elements in this queue based on the elements in the given
-	 * collection. Iterates through reachable elements in the queue, and checks
-	 * if the given collection also has this element. If it does, and the flag
-	 * is true, this current element from the queue is removed, if the flag is
-	 * false, then it is kept. The reverse is also true. If the collection does
-	 * not have this element, and the flag is true, the element is kept,
-	 * otherwise if the collection does not have this element, and the flag is
-	 * false, this element is removed.
+	 * Used to access the element at a given position in the queue, counting
+	 * from the head, in constant time.
 	 *
-	 * @param c
-	 *            The collection from which to compare this queue's elements.
-	 * @param mod
-	 *            The flag to specify removal of an element of not based on if
-	 *            the given collection has the same element
-	 * @return Returns true if the queue was modified, false if it was not
+	 * @param i
+	 *            The position of the element, 0 being the head
+	 * @return The element at that position
+	 * @throws IndexOutOfBoundsException
+	 *             If {@code i} is negative or not less than the size
 	 */
-	private boolean compareRemove(Collection<?> c, boolean mod) {
-		if (c == null) {
-			throw new NullPointerException();
+	public T get(int i) {
+		return elements[index(i)];
+	}
+
+	/**
+	 * Used to replace the element at a given position in the queue, counting
+	 * from the head, in constant time.
+	 *
+	 * @param i
+	 *            The position of the element, 0 being the head
+	 * @param e
+	 *            The element to store at that position
+	 * @return The element previously at that position
+	 * @throws IndexOutOfBoundsException
+	 *             If {@code i} is negative or not less than the size
+	 */
+	public T set(int i, T e) {
+		int j = index(i);
+		T o = elements[j];
+		elements[j] = e;
+		uncount(o);
+		count(e);
+		hashValid = false;
+		return o;
+	}
+
+	/**
+	 * Maps a position in the queue onto an index of the array.
+	 *
+	 * @param i
+	 *            The position of the element, 0 being the head
+	 * @return The index of the element within the array
+	 */
+	private int index(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
 		}
-		int h = head, cnt = 0, p = head;
-		for (; cnt < size; h++, cnt++) {
-			if (h == capacity) {
-				h = 0;
-			}
-			if (p == capacity) {
-				p = 0;
-			}
-			if (c.contains(elements[h]) != mod) {
-				elements[p++] = elements[h];
-			}
+		if (powerOfTwo) {
+			return (head + i) & mask;
 		}
-		boolean changed = tail != p;
-		if (tail - p > 0) {
-			for (int i = p; i < tail; i++) {
-				elements[i] = null;
-			}
-		} else if (p - tail > 0) {
-			for (int i = p; i < capacity; i++) {
-				elements[i] = null;
-			}
-			for (int i = 0; i < tail; i++) {
-				elements[i] = null;
-			}
+		return i < capacity - head ? head + i : i - (capacity - head);
+	}
+
+	/**
+	 * Used to get a fixed size {@code List} view of the queue, indexed from the
+	 * head. The view supports {@code RandomAccess}, so {@code Collections}
+	 * algorithms such as {@code binarySearch} use {@code get} directly rather
+	 * than walking an iterator. Elements may be replaced through the view,
+	 * but not added or removed. Changes to the queue show through the view.
+	 *
+	 * @return The list view
+	 */
+	public List<T> asList() {
+		return new ListView();
+	}
+
+	/**
+	 * Random access list view of the queue, returned by {@code asList}.
+	 */
+	private class ListView extends AbstractList<T> implements RandomAccess {
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.AbstractList#get(int)
+		 */
+		@Override
+		public T get(int i) {
+			return CircularArrayQueue.this.get(i);
 		}
-		size -= (p <= tail ? tail - p : capacity - p + tail);
-		tail = p;
-		if (changed) {
-			mods++;
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.AbstractList#set(int, java.lang.Object)
+		 */
+		@Override
+		public T set(int i, T e) {
+			return CircularArrayQueue.this.set(i, e);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.AbstractCollection#size()
+		 */
+		@Override
+		public int size() {
+			return size;
 		}
-		return changed;
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see java.util.Collection#clear()
+	 * @see java.util.Deque#addFirst(java.lang.Object)
 	 */
 	@Override
-	public void clear() {
-		if (head < tail) {
-			for (int i = head; i < tail; i++) {
-				elements[i] = null;
-			}
-		} else {
-			for (int i = head; i < capacity; i++) {
-				elements[i] = null;
-			}
-			for (int i = 0; i < tail; i++) {
-				elements[i] = null;
-			}
+	public void addFirst(T e) {
+		if (!offerFirst(e) && overflowPolicy == OverflowPolicy.REJECT) {
+			throw new IllegalStateException();
 		}
-		tail = 0;
-		head = 0;
-		size = 0;
-		mods++;
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see java.util.Queue#add(java.lang.Object)
+	 * @see java.util.Deque#offerFirst(java.lang.Object)
 	 */
 	@Override
-	public boolean add(T e) {
-		if (tail == capacity) {
-			tail = 0;
+	public boolean offerFirst(T e) {
+		if (size >= bound && !makeRoom()) {
+			return false;
 		}
-		if ((tail == head && size != 0) || capacity == 0) {
-			resize(ensureCapacity(capacity << 1));
+		if (size == capacity) {
+			grow(size + 1);
 		}
 		mods++;
-		elements[tail++] = e;
+		head = dec(head);
+		elements[head] = e;
+		count(e);
 		size++;
 		return true;
 	}
 
-	private int ensureCapacity(int newCapacity) {
-		return (newCapacity == 0) ? 1 : newCapacity;
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Deque#addLast(java.lang.Object)
+	 */
+	@Override
+	public void addLast(T e) {
+		add(e);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see java.util.Queue#offer(java.lang.Object)
+	 * @see java.util.Deque#offerLast(java.lang.Object)
 	 */
 	@Override
-	public boolean offer(T e) {
-		return add(e);
+	public boolean offerLast(T e) {
+		return offer(e);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see java.util.Queue#remove()
+	 * @see java.util.Deque#removeFirst()
 	 */
 	@Override
-	public T remove() {
+	public T removeFirst() {
+		return remove();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Deque#removeLast()
+	 */
+	@Override
+	public T removeLast() {
 		if (size == 0) {
 			throw new NoSuchElementException();
 		}
 		mods++;
-		T o = elements[head];
-		elements[head++] = null;
-		if (head == capacity) {
-			head = 0;
-		}
+		tail = last();
+		T o = elements[tail];
+		elements[tail] = null;
+		uncount(o);
 		size--;
+		if (size < shrinkThreshold) {
+			shrink();
+		}
 		return o;
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see java.util.Queue#poll()
+	 * @see java.util.Deque#pollFirst()
 	 */
 	@Override
-	public T poll() {
-		return size == 0 ? null : remove();
+	public T pollFirst() {
+		return poll();
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see java.util.Queue#element()
+	 * @see java.util.Deque#pollLast()
 	 */
 	@Override
-	public T element() {
+	public T pollLast() {
+		return size == 0 ? null : removeLast();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Deque#getFirst()
+	 */
+	@Override
+	public T getFirst() {
+		return element();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Deque#getLast()
+	 */
+	@Override
+	public T getLast() {
 		if (size == 0) {
 			throw new NoSuchElementException();
 		}
-		return elements[head];
+		return elements[last()];
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see java.util.Queue#peek()
+	 * @see java.util.Deque#peekFirst()
 	 */
 	@Override
-	public T peek() {
-		return size == 0 ? null : elements[head];
+	public T peekFirst() {
+		return peek();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Deque#peekLast()
+	 */
+	@Override
+	public T peekLast() {
+		return size == 0 ? null : elements[last()];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Deque#removeFirstOccurrence(java.lang.Object)
+	 */
+	@Override
+	public boolean removeFirstOccurrence(Object o) {
+		return remove(o);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Deque#removeLastOccurrence(java.lang.Object)
+	 */
+	@Override
+	public boolean removeLastOccurrence(Object o) {
+		Iterator<T> it = descendingIterator();
+		while (it.hasNext()) {
+			T e = it.next();
+			if (o == null ? e == null : o.equals(e)) {
+				it.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Deque#push(java.lang.Object)
+	 */
+	@Override
+	public void push(T e) {
+		addFirst(e);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Deque#pop()
+	 */
+	@Override
+	public T pop() {
+		return remove();
+	}
+
+	/**
+	 * Removes up to {@code limit} elements from the head of the queue, handing
+	 * each to the given consumer in order. The elements are read straight out
+	 * of the two contiguous segments of the array, and the vacated slots are
+	 * cleared and the pointers updated once for the whole batch. If the
+	 * consumer throws, the elements it accepted are still removed, and the
+	 * one it threw on is left at the head.
+	 *
+	 * @param c
+	 *            The consumer to hand each removed element to
+	 * @param limit
+	 *            The maximum number of elements to remove
+	 * @return The number of elements removed
+	 */
+	public int drain(Consumer<? super T> c, int limit) {
+		if (c == null) {
+			throw new NullPointerException();
+		}
+		int n = Math.min(limit, size);
+		if (n <= 0) {
+			return 0;
+		}
+		final T[] a = elements;
+		final int h = head;
+		int first = Math.min(n, capacity - h);
+		int k = 0;
+		try {
+			for (; k < first; k++) {
+				c.accept(a[h + k]);
+			}
+			for (; k < n; k++) {
+				c.accept(a[k - first]);
+			}
+		} finally {
+			discard(k);
+		}
+		return n;
+	}
+
+	/**
+	 * Removes up to {@code length} elements from the head of the queue,
+	 * copying them in order into the given array. At most two array copies
+	 * are made, and the pointers are only updated once for the whole batch.
+	 *
+	 * @param dst
+	 *            The array to copy the removed elements into
+	 * @param offset
+	 *            Index in {@code dst} of the first removed element
+	 * @param length
+	 *            Maximum number of elements to remove
+	 * @return The number of elements removed
+	 */
+	public int pollInto(T[] dst, int offset, int length) {
+		if (dst == null) {
+			throw new NullPointerException();
+		}
+		if (offset < 0 || length < 0 || offset > dst.length - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		int n = Math.min(length, size);
+		if (n == 0) {
+			return 0;
+		}
+		int first = Math.min(n, capacity - head);
+		System.arraycopy(elements, head, dst, offset, first);
+		System.arraycopy(elements, 0, dst, offset + first, n - first);
+		discard(n);
+		return n;
+	}
+
+	/**
+	 * Removes the given number of elements from the head of the queue,
+	 * clearing their slots with at most two fills.
+	 *
+	 * @param n
+	 *            The number of elements to remove, no more than the size
+	 */
+	private void discard(int n) {
+		if (n == 0) {
+			return;
+		}
+		if (counts != null) {
+			for (int i = 0, h = head; i < n; i++, h = inc(h)) {
+				uncount(elements[h]);
+			}
+		}
+		int first = Math.min(n, capacity - head);
+		Arrays.fill(elements, head, head + first, null);
+		Arrays.fill(elements, 0, n - first, null);
+		head = n < capacity - head ? head + n : n - (capacity - head);
+		size -= n;
+		mods++;
+		if (size < shrinkThreshold) {
+			shrink();
+		}
 	}
 
 	/*
@@ -692,13 +1931,22 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 	 */
 	@Override
 	public int hashCode() {
-		final int prime = 31;
+		if (hashCached && hashValid && hashMods == mods) {
+			return hash;
+		}
 		int result = 1;
-		result = prime * result + capacity;
-		result = prime * result + Arrays.hashCode(toArray());
-		result = prime * result + head;
-		result = prime * result + size;
-		result = prime * result + tail;
+		int first = Math.min(size, capacity - head);
+		for (int i = head; i < head + first; i++) {
+			result = 31 * result + (elements[i] == null ? 0 : elements[i].hashCode());
+		}
+		for (int i = 0; i < size - first; i++) {
+			result = 31 * result + (elements[i] == null ? 0 : elements[i].hashCode());
+		}
+		if (hashCached) {
+			hash = result;
+			hashMods = mods;
+			hashValid = true;
+		}
 		return result;
 	}
 
@@ -720,22 +1968,64 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 			return false;
 		}
 		CircularArrayQueue other = (CircularArrayQueue) obj;
-		if (capacity != other.capacity) {
+		if (size != other.size) {
 			return false;
 		}
-		if (!Arrays.equals(toArray(), other.toArray())) {
+		if (hashCached && other.hashCached && hashCode() != other.hashCode()) {
 			return false;
 		}
-		if (head != other.head) {
-			return false;
+		Object[] a = elements, b = other.elements;
+		for (int n = 0, i = head, j = other.head; n < size; n++, i = inc(i), j = other.inc(j)) {
+			if (a[i] == null ? b[j] != null : !a[i].equals(b[j])) {
+				return false;
+			}
 		}
-		if (size != other.size) {
-			return false;
+		return true;
+	}
+
+	/**
+	 * Writes the queue's settings, followed by the number of elements, whether
+	 * the queue is indexed, and the elements in order from head to tail. Empty
+	 * slots of the array are not written.
+	 */
+	private void writeObject(ObjectOutputStream s) throws IOException {
+		s.defaultWriteObject();
+		s.writeInt(size);
+		s.writeBoolean(counts != null);
+		int first = Math.min(size, capacity - head);
+		for (int i = head; i < head + first; i++) {
+			s.writeObject(elements[i]);
 		}
-		if (tail != other.tail) {
-			return false;
+		for (int i = 0; i < size - first; i++) {
+			s.writeObject(elements[i]);
 		}
-		return true;
+	}
+
+	/**
+	 * Rebuilds the ring from the elements written by {@code writeObject}, into
+	 * an array just large enough to hold them, or the full bound for a bounded
+	 * queue.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
+		s.defaultReadObject();
+		int n = s.readInt();
+		boolean indexed = s.readBoolean();
+		if (n < 0 || n > bound) {
+			throw new InvalidObjectException("Invalid size: " + n);
+		}
+		int cap = overflowPolicy != null ? bound : n;
+		capacity = powerOfTwo ? powerOfTwoCapacity(cap) : cap;
+		elements = (T[]) new Object[capacity];
+		for (int i = 0; i < n; i++) {
+			elements[i] = (T) s.readObject();
+		}
+		mask = capacity - 1;
+		head = 0;
+		size = n;
+		tail = powerOfTwo ? n & mask : n;
+		shrinkThreshold = shrinkPolicy.threshold(capacity);
+		setIndexed(indexed);
 	}
 
 	/*
@@ -750,6 +2040,9 @@ public class CircularArrayQueue<T> implements Queue<T>, Serializable, Cloneable,
 		try {
 			c = (CircularArrayQueue<T>) super.clone();
 			c.elements = Arrays.copyOf(this.elements, capacity);
+			if (counts != null) {
+				c.counts = new HashMap<>(counts);
+			}
 			return c;
 		} catch (CloneNotSupportedException e) {
 			throw new InternalError(e);
@@ -0,0 +1,178 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Turns elements into bytes and back, for queues which keep their elements
+ * outside the heap or in files rather than as Java objects. The queue asks
+ * for the encoded length first, so it can find room for the whole record
+ * before the codec writes it straight into place.
+ *
+ * @author David Brown
+ * @see MappedCircularQueue
+ * @param <T>
+ *            Type of element encoded
+ */
+public interface ElementCodec<T> {
+
+	/**
+	 * Used to find how many bytes an element encodes to.
+	 *
+	 * @param e
+	 *            The element to encode
+	 * @return The number of bytes {@code encode} will write for it
+	 */
+	int encodedLength(T e);
+
+	/**
+	 * Writes an element at the position of the buffer, advancing the position
+	 * by exactly {@code encodedLength(e)} bytes.
+	 *
+	 * @param e
+	 *            The element to encode
+	 * @param dst
+	 *            The buffer to write to
+	 */
+	void encode(T e, ByteBuffer dst);
+
+	/**
+	 * Reads an element from the position of the buffer.
+	 *
+	 * @param src
+	 *            The buffer to read from
+	 * @param length
+	 *            The number of bytes the element was encoded to
+	 * @return The element
+	 */
+	T decode(ByteBuffer src, int length);
+
+	/**
+	 * Used to get a codec for strings, encoded as UTF-8 straight into the
+	 * buffer. Unpaired surrogates are encoded as {@code '?'}, as
+	 * {@code String.getBytes} does.
+	 *
+	 * @return The codec
+	 */
+	static ElementCodec<String> utf8() {
+		return new ElementCodec<String>() {
+
+			@Override
+			public int encodedLength(String e) {
+				int n = 0;
+				for (int i = 0; i < e.length(); i++) {
+					char c = e.charAt(i);
+					if (c < 0x80) {
+						n++;
+					} else if (c < 0x800) {
+						n += 2;
+					} else if (!Character.isSurrogate(c)) {
+						n += 3;
+					} else if (pair(e, i)) {
+						n += 4;
+						i++;
+					} else {
+						n++;
+					}
+				}
+				return n;
+			}
+
+			@Override
+			public void encode(String e, ByteBuffer dst) {
+				for (int i = 0; i < e.length(); i++) {
+					char c = e.charAt(i);
+					if (c < 0x80) {
+						dst.put((byte) c);
+					} else if (c < 0x800) {
+						dst.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+					} else if (!Character.isSurrogate(c)) {
+						dst.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F))
+								.put((byte) (0x80 | c & 0x3F));
+					} else if (pair(e, i)) {
+						int cp = Character.toCodePoint(c, e.charAt(++i));
+						dst.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+								.put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+					} else {
+						// unpaired surrogates are replaced, as String.getBytes does
+						dst.put((byte) '?');
+					}
+				}
+			}
+
+			/**
+			 * Used to determine whether the character at the given index
+			 * starts a surrogate pair.
+			 */
+			private boolean pair(String e, int i) {
+				return Character.isHighSurrogate(e.charAt(i)) && i + 1 < e.length()
+						&& Character.isLowSurrogate(e.charAt(i + 1));
+			}
+
+			@Override
+			public String decode(ByteBuffer src, int length) {
+				byte[] b = new byte[length];
+				src.get(b);
+				return new String(b, StandardCharsets.UTF_8);
+			}
+		};
+	}
+
+	/**
+	 * Used to get a codec for byte arrays, stored as they are.
+	 *
+	 * @return The codec
+	 */
+	static ElementCodec<byte[]> bytes() {
+		return new ElementCodec<byte[]>() {
+
+			@Override
+			public int encodedLength(byte[] e) {
+				return e.length;
+			}
+
+			@Override
+			public void encode(byte[] e, ByteBuffer dst) {
+				dst.put(e);
+			}
+
+			@Override
+			public byte[] decode(ByteBuffer src, int length) {
+				byte[] b = new byte[length];
+				src.get(b);
+				return b;
+			}
+		};
+	}
+
+	/**
+	 * Used to get a codec for longs, stored in eight bytes.
+	 *
+	 * @return The codec
+	 */
+	static ElementCodec<Long> longs() {
+		return new ElementCodec<Long>() {
+
+			@Override
+			public int encodedLength(Long e) {
+				return Long.BYTES;
+			}
+
+			@Override
+			public void encode(Long e, ByteBuffer dst) {
+				dst.putLong(e);
+			}
+
+			@Override
+			public Long decode(ByteBuffer src, int length) {
+				return src.getLong();
+			}
+		};
+	}
+}
@@ -0,0 +1,185 @@
+import java.io.Serializable;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Decides how far a {@code CircularArrayQueue} grows its underlying array when
+ * it runs out of room. The policies given here work out the new capacity in
+ * {@code long} arithmetic and clamp it to {@link #MAX_CAPACITY}, so a queue
+ * close to the largest possible array grows to that size instead of
+ * overflowing to a negative capacity.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue#CircularArrayQueue(int, GrowthPolicy)
+ */
+public interface GrowthPolicy extends Serializable {
+
+	/**
+	 * The largest capacity any of these policies will grow to. Some virtual
+	 * machines reserve a few header words in an array, so asking for a larger
+	 * one can fail even when there is memory to spare.
+	 */
+	int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+	/**
+	 * Used to find the capacity to grow to.
+	 *
+	 * @param capacity
+	 *            The current capacity of the queue
+	 * @param minCapacity
+	 *            The capacity needed to hold the elements being added, always
+	 *            greater than {@code capacity}
+	 * @return The new capacity, at least {@code minCapacity}
+	 * @throws IllegalStateException
+	 *             If the queue is not allowed to grow to {@code minCapacity}
+	 */
+	int grow(int capacity, int minCapacity);
+
+	/**
+	 * Used to get the policy which doubles the capacity, the default for new
+	 * queues.
+	 *
+	 * @return The policy
+	 */
+	static GrowthPolicy doubling() {
+		return Scaling.DOUBLING;
+	}
+
+	/**
+	 * Used to get a policy which grows the capacity by half, as
+	 * {@code ArrayList} does. This wastes less memory on large queues, at the
+	 * cost of resizing more often.
+	 *
+	 * @return The policy
+	 */
+	static GrowthPolicy oneAndAHalf() {
+		return Scaling.ONE_AND_A_HALF;
+	}
+
+	/**
+	 * Used to get a policy which grows the capacity by the same number of
+	 * elements each time.
+	 *
+	 * @param increment
+	 *            The number of elements to grow by
+	 * @return The policy
+	 */
+	static GrowthPolicy fixedIncrement(int increment) {
+		return new FixedIncrement(increment);
+	}
+
+	/**
+	 * Used to get a policy which grows as the given policy does, but never
+	 * past a maximum capacity. Adding an element which would need the queue
+	 * to grow past the maximum throws {@code IllegalStateException}.
+	 *
+	 * @param policy
+	 *            The policy to grow by until the maximum is reached
+	 * @param maxCapacity
+	 *            The largest capacity the queue may grow to
+	 * @return The policy
+	 */
+	static GrowthPolicy capped(GrowthPolicy policy, int maxCapacity) {
+		return new Capped(policy, maxCapacity);
+	}
+
+	/**
+	 * Clamps a proposed capacity to between {@code minCapacity} and
+	 * {@link #MAX_CAPACITY}.
+	 */
+	private static int clamp(long proposed, int minCapacity) {
+		if (minCapacity < 0 || minCapacity > MAX_CAPACITY) {
+			throw new IllegalStateException();
+		}
+		return (int) Math.min(MAX_CAPACITY, Math.max(proposed, minCapacity));
+	}
+
+	/**
+	 * Policy which multiplies the capacity by a fixed fraction.
+	 */
+	final class Scaling implements GrowthPolicy {
+
+		private static final long serialVersionUID = -6372069157314102286L;
+
+		private static final Scaling DOUBLING = new Scaling(0);
+
+		private static final Scaling ONE_AND_A_HALF = new Scaling(1);
+
+		/**
+		 * The capacity grows by itself shifted right by this much.
+		 */
+		private final int shift;
+
+		private Scaling(int shift) {
+			this.shift = shift;
+		}
+
+		@Override
+		public int grow(int capacity, int minCapacity) {
+			return clamp((long) capacity + (capacity >> shift), minCapacity);
+		}
+
+		private Object readResolve() {
+			return shift == 0 ? DOUBLING : ONE_AND_A_HALF;
+		}
+	}
+
+	/**
+	 * Policy which adds a fixed number of elements to the capacity.
+	 */
+	final class FixedIncrement implements GrowthPolicy {
+
+		private static final long serialVersionUID = 3365823790129004553L;
+
+		private final int increment;
+
+		private FixedIncrement(int increment) {
+			if (increment <= 0) {
+				throw new IllegalArgumentException();
+			}
+			this.increment = increment;
+		}
+
+		@Override
+		public int grow(int capacity, int minCapacity) {
+			return clamp((long) capacity + increment, minCapacity);
+		}
+	}
+
+	/**
+	 * Policy which grows as another does, up to a maximum capacity.
+	 */
+	final class Capped implements GrowthPolicy {
+
+		private static final long serialVersionUID = -8530264581836071826L;
+
+		private final GrowthPolicy policy;
+
+		private final int maxCapacity;
+
+		private Capped(GrowthPolicy policy, int maxCapacity) {
+			if (policy == null) {
+				throw new NullPointerException();
+			}
+			if (maxCapacity <= 0) {
+				throw new IllegalArgumentException();
+			}
+			this.policy = policy;
+			this.maxCapacity = maxCapacity;
+		}
+
+		@Override
+		public int grow(int capacity, int minCapacity) {
+			if (minCapacity > maxCapacity || minCapacity < 0) {
+				throw new IllegalStateException();
+			}
+			return Math.max(minCapacity, Math.min(maxCapacity, policy.grow(capacity, minCapacity)));
+		}
+	}
+}
@@ -0,0 +1,264 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IntCAQTest {
+	IntCircularArrayQueue queue;
+	ArrayDeque<Integer> test;
+
+	@Before
+	public void setup() {
+		queue = new IntCircularArrayQueue();
+		test = new ArrayDeque<Integer>();
+	}
+
+	private void testElementsEqual() {
+		int[] expected = new int[test.size()];
+		int i = 0;
+		for (Integer e : test) {
+			expected[i++] = e;
+		}
+		assertArrayEquals(expected, queue.toIntArray());
+		assertEquals(test.size(), queue.size());
+	}
+
+	@Test
+	public void add() {
+		queue.addInt(1);
+		assertEquals(1, queue.size());
+		assertTrue(queue.contains(1));
+		assertFalse(queue.contains(2));
+	}
+
+	@Test
+	public void testCapacity() {
+		for (int i = 0; i < 10; i++) {
+			queue.addInt(i);
+			assertEquals(10, queue.capacity());
+		}
+
+		queue.addInt(10);
+		assertEquals(20, queue.capacity());
+	}
+
+	@Test
+	public void testEmptyConstructor() {
+		queue = new IntCircularArrayQueue(0);
+		queue.addInt(1);
+		assertEquals(1, queue.size());
+		assertEquals(1, queue.pollInt());
+	}
+
+	@Test
+	public void testMissingValue() {
+		assertEquals(0, queue.pollInt());
+		assertEquals(0, queue.peekInt());
+
+		queue = new IntCircularArrayQueue(4, -1);
+		assertEquals(-1, queue.pollInt());
+		assertEquals(-1, queue.peekInt());
+		queue.addInt(7);
+		assertEquals(7, queue.peekInt());
+		assertEquals(7, queue.pollInt());
+		assertEquals(-1, queue.pollInt());
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testEmptyRemove() {
+		queue.removeInt();
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testEmptyElement() {
+		queue.elementInt();
+	}
+
+	@Test
+	public void testMultipleAddRemove() {
+		Random rand = new Random();
+		for (int i = 0; i < 100000; i++) {
+			float next = rand.nextFloat();
+			if (test.isEmpty()) {
+				next = 0.9f;
+			}
+			if (next >= 0.4f) {
+				queue.addInt(i);
+				test.add(i);
+			} else {
+				assertEquals((int) test.remove(), queue.removeInt());
+			}
+		}
+		testElementsEqual();
+	}
+
+	@Test
+	public void testIterator() {
+		for (int i = 0; i < 15; i++) {
+			queue.addInt(i);
+			test.add(i);
+		}
+		for (int i = 0; i < 8; i++) {
+			queue.removeInt();
+			test.remove();
+		}
+		for (int i = 0; i < 10; i++) {
+			queue.addInt(i);
+			test.add(i);
+		}
+
+		PrimitiveIterator.OfInt it = queue.iterator();
+		Iterator<Integer> i = test.iterator();
+		while (i.hasNext()) {
+			assertTrue(it.hasNext());
+			assertEquals((int) i.next(), it.nextInt());
+		}
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testIteratorRemove() {
+		Random rand = new Random();
+		for (int i = 0; i < 1000; i++) {
+			float next = rand.nextFloat();
+			if (test.isEmpty()) {
+				next = 0.9f;
+			}
+			if (next >= 0.3f) {
+				queue.addInt(i);
+				test.add(i);
+			} else {
+				queue.removeInt();
+				test.remove();
+			}
+		}
+
+		PrimitiveIterator.OfInt it = queue.iterator();
+		Iterator<Integer> i = test.iterator();
+		while (i.hasNext()) {
+			assertEquals((int) i.next(), it.nextInt());
+			if (rand.nextFloat() >= 0.5f) {
+				i.remove();
+				it.remove();
+			}
+			assertEquals(i.hasNext(), it.hasNext());
+		}
+		testElementsEqual();
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testConcurrentModification() {
+		for (int i = 0; i < 50; i++) {
+			queue.addInt(i);
+		}
+
+		PrimitiveIterator.OfInt i = queue.iterator();
+		queue.removeInt();
+		i.nextInt();
+	}
+
+	@Test
+	public void testToIntArray() {
+		for (int i = 0; i < 10; i++) {
+			queue.addInt(i);
+		}
+		for (int i = 0; i < 5; i++) {
+			queue.removeInt();
+		}
+		for (int i = 10; i < 15; i++) {
+			queue.addInt(i);
+		}
+		assertEquals(10, queue.capacity());
+		assertArrayEquals(new int[] { 5, 6, 7, 8, 9, 10, 11, 12, 13, 14 }, queue.toIntArray());
+
+		int[] a = new int[12];
+		assertTrue(a == queue.toIntArray(a));
+		assertEquals(14, a[9]);
+	}
+
+	@Test
+	public void testEqualsAndClone() {
+		for (int i = 0; i < 20; i++) {
+			queue.addInt(i);
+		}
+		IntCircularArrayQueue clone = queue.clone();
+		assertTrue(clone.equals(queue));
+		assertEquals(queue.hashCode(), clone.hashCode());
+		assertFalse(clone == queue);
+
+		clone.removeInt();
+		assertFalse(clone.equals(queue));
+		assertEquals(20, queue.size());
+
+		IntCircularArrayQueue other = new IntCircularArrayQueue(queue.toIntArray());
+		assertTrue(other.equals(queue));
+	}
+
+	@Test
+	public void testClear() {
+		queue.addInt(1);
+		queue.addInt(2);
+		queue.clear();
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.size());
+		assertFalse(queue.iterator().hasNext());
+	}
+
+	@Test
+	public void testBulkAddAndPoll() {
+		for (int i = 0; i < 8; i++) {
+			queue.addInt(i);
+			test.add(i);
+		}
+		for (int i = 0; i < 6; i++) {
+			queue.removeInt();
+			test.remove();
+		}
+
+		int[] src = new int[] { -1, 100, 101, 102, 103, 104, 105, -1 };
+		assertTrue(queue.addAll(src, 1, 6));
+		for (int i = 1; i < 7; i++) {
+			test.add(src[i]);
+		}
+		assertEquals(10, queue.capacity());
+		testElementsEqual();
+
+		assertTrue(queue.addAll(new int[] { 7, 8, 9, 10, 11 }));
+		for (int i = 7; i < 12; i++) {
+			test.add(i);
+		}
+		testElementsEqual();
+
+		int[] dst = new int[20];
+		int n = queue.pollInto(dst, 2, 5);
+		assertEquals(5, n);
+		for (int i = 0; i < n; i++) {
+			assertEquals((int) test.remove(), dst[2 + i]);
+		}
+		testElementsEqual();
+
+		n = queue.pollInto(dst, 0, dst.length);
+		assertEquals(test.size(), n);
+		for (int i = 0; i < n; i++) {
+			assertEquals((int) test.remove(), dst[i]);
+		}
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.pollInto(dst, 0, dst.length));
+		assertFalse(queue.addAll(new int[0]));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testBulkAddBounds() {
+		queue.addAll(new int[4], 2, 3);
+	}
+}
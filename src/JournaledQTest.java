@@ -0,0 +1,194 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournaledQTest {
+	Path dir;
+	JournaledQueue<String> queue;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("jq");
+		queue = open(SyncPolicy.everyOp());
+	}
+
+	@After
+	public void teardown() throws IOException {
+		queue.close();
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path f : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(f);
+			}
+		}
+	}
+
+	JournaledQueue<String> open(SyncPolicy policy) throws IOException {
+		return new JournaledQueue<String>(dir, ElementCodec.utf8(), policy, 256);
+	}
+
+	List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		assertTrue(queue.isEmpty());
+		for (int i = 0; i < 5; i++) {
+			queue.add("e" + i);
+		}
+		assertEquals("e0", queue.poll());
+		assertEquals("e1", queue.remove());
+		queue.close();
+		queue = open(SyncPolicy.everyOp());
+		assertEquals(Arrays.asList("e2", "e3", "e4"), Arrays.asList(queue.toArray()));
+		queue.clear();
+		queue.add("x");
+		queue.close();
+		queue = open(SyncPolicy.everyOp());
+		assertEquals(1, queue.size());
+		assertEquals("x", queue.peek());
+	}
+
+	@Test
+	public void testReplayWithoutClose() throws IOException {
+		queue.addAll(Arrays.asList("a", "b", "c"));
+		queue.poll();
+		// open again without closing, as after a crash
+		JournaledQueue<String> reopened = open(SyncPolicy.everyOp());
+		assertEquals(Arrays.asList("b", "c"), Arrays.asList(reopened.toArray()));
+		reopened.close();
+	}
+
+	@Test
+	public void testTornRecordIgnored() throws IOException {
+		queue.add("kept");
+		queue.close();
+		Path last = segments().get(segments().size() - 1);
+		long length = Files.size(last);
+		Files.write(last, new byte[] { 0, 0, 0, 9, 1, 'x' }, StandardOpenOption.APPEND);
+		queue = open(SyncPolicy.everyOp());
+		assertEquals(1, queue.size());
+		assertEquals(length, Files.size(last));
+		queue.add("next");
+		queue.close();
+		queue = open(SyncPolicy.everyOp());
+		assertEquals(Arrays.asList("kept", "next"), Arrays.asList(queue.toArray()));
+	}
+
+	@Test
+	public void testSegmentsRoll() throws IOException {
+		queue.close();
+		queue = open(SyncPolicy.everyOps(50));
+		for (int i = 0; i < 500; i++) {
+			queue.add("element" + i);
+			if (i % 2 == 1) {
+				queue.poll();
+			}
+		}
+		assertEquals(1, segments().size());
+		assertTrue(segments().get(0).getFileName().toString().compareTo("journal-00000000000000000001.log") > 0);
+		queue.close();
+		queue = open(SyncPolicy.everyOp());
+		assertEquals(250, queue.size());
+		for (int i = 250; i < 500; i++) {
+			assertEquals("element" + i, queue.poll());
+		}
+	}
+
+	@Test
+	public void testIncompleteSnapshotIgnored() throws IOException {
+		queue.add("a");
+		queue.add("b");
+		queue.close();
+		Path first = segments().get(0);
+		// a later segment whose snapshot promises two elements but holds none
+		Files.write(dir.resolve("journal-00000000000000000099.log"),
+				new byte[] { 0, 0, 0, 4, 4, 0, 0, 0, 2, 0, 0, 0, 0 });
+		queue = open(SyncPolicy.everyOp());
+		assertEquals(Arrays.asList("a", "b"), Arrays.asList(queue.toArray()));
+		assertEquals(Arrays.asList(first), segments());
+	}
+
+	@Test
+	public void testUnsyncedPolicies() throws IOException {
+		queue.close();
+		queue = open(SyncPolicy.everyOps(1000));
+		queue.add("a");
+		queue.sync();
+		queue.add("b");
+		queue.close();
+		queue = open(SyncPolicy.everyMillis(10000));
+		assertEquals(Arrays.asList("a", "b"), Arrays.asList(queue.toArray()));
+		assertFalse(SyncPolicy.everyOps(3).shouldSync(2, System.nanoTime()));
+		assertTrue(SyncPolicy.everyOps(3).shouldSync(3, System.nanoTime()));
+		assertFalse(SyncPolicy.everyMillis(10000).shouldSync(1, System.nanoTime()));
+		assertTrue(SyncPolicy.everyMillis(0).shouldSync(1, System.nanoTime()));
+		try (JournaledQueue<String> other = new JournaledQueue<String>(dir.resolve("sub"), ElementCodec.utf8(),
+				SyncPolicy.everyOp())) {
+			assertNull(other.poll());
+		}
+	}
+
+	@Test
+	public void testUnsyncedSurviveCrash() throws IOException {
+		for (SyncPolicy policy : Arrays.asList(SyncPolicy.everyOps(1000), SyncPolicy.everyMillis(60000))) {
+			queue.close();
+			queue = open(policy);
+			queue.clear();
+			queue.add("a");
+			queue.addAll(Arrays.asList("b", "c"));
+			queue.poll();
+			// open again without closing or syncing, as after the process dies
+			JournaledQueue<String> reopened = open(SyncPolicy.everyOp());
+			assertEquals(Arrays.asList("b", "c"), Arrays.asList(reopened.toArray()));
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void testAcknowledge() throws IOException {
+		queue.addAll(Arrays.asList("a", "b"));
+		assertEquals("a", queue.peek());
+		// the consumer dies before acknowledging
+		JournaledQueue<String> reopened = open(SyncPolicy.everyOp());
+		assertEquals(Arrays.asList("a", "b"), Arrays.asList(reopened.toArray()));
+		assertEquals("a", reopened.peek());
+		assertEquals("a", reopened.acknowledge());
+		reopened.close();
+		queue.close();
+		queue = open(SyncPolicy.everyOp());
+		assertEquals(Arrays.asList("b"), Arrays.asList(queue.toArray()));
+		assertEquals("b", queue.acknowledge());
+		try {
+			queue.acknowledge();
+			fail();
+		} catch (NoSuchElementException e) {
+			assertTrue(queue.isEmpty());
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testIteratorRemove() {
+		queue.add("a");
+		queue.iterator().remove();
+	}
+}
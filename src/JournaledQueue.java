@@ -0,0 +1,617 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Durable queue which keeps its elements in a {@code CircularArrayQueue} and
+ * logs every change to a journal of segment files in a directory, before
+ * making it. Opening a queue on a directory which already holds a journal
+ * replays it, so the queue comes back as it was when the last operation to
+ * reach the disk was logged.
+ *
+ * The operations of each call are gathered in a buffer and written to the
+ * current segment through a {@code FileChannel} before the call returns, so
+ * they survive the process dying. When the segment is forced to the disk, so
+ * they also survive the machine failing, is decided by a {@code SyncPolicy},
+ * asked once per call rather than once per element, so that {@code addAll}
+ * and callers logging many operations between syncs share the cost of each
+ * one. Records carry a checksum, and replay stops at the first record which
+ * is torn or corrupt.
+ *
+ * Once a segment grows past the segment size a new one is started, beginning
+ * with a snapshot of the elements in the queue, and the old segments are
+ * deleted once the snapshot is on the disk. Replay only ever reads the newest
+ * segment with a complete snapshot.
+ *
+ * {@code poll} and {@code remove} log the removal before returning the
+ * element, so an element taken by a consumer which then crashes before
+ * finishing with it is gone. For at-least-once delivery, read the head with
+ * {@code peek} and call {@code acknowledge} once it has been dealt with: the
+ * removal is only logged then, so an element whose addition was synced comes
+ * back after a crash until it has been acknowledged, and may be delivered
+ * again if the crash came before the acknowledgement was synced. Only the
+ * head may be removed: the iterator does not support removal. The queue
+ * is not thread safe, null elements are not permitted, and errors writing the
+ * journal are thrown as {@code UncheckedIOException}.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue
+ * @see SyncPolicy
+ * @param <T>
+ *            Type of object to be stored in the queue
+ */
+public class JournaledQueue<T> extends AbstractQueue<T> implements Closeable {
+
+	/**
+	 * Default size at which a new segment is started.
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+	/**
+	 * Size of the buffer the operations of a call are gathered in.
+	 */
+	private static final int BUFFER_SIZE = 64 << 10;
+
+	/**
+	 * Names of segment files are the prefix, the segment number and the
+	 * suffix.
+	 */
+	private static final String PREFIX = "journal-", SUFFIX = ".log";
+
+	/**
+	 * Operations recorded in the journal.
+	 */
+	private static final byte ADD = 1, REMOVE = 2, CLEAR = 3, SNAPSHOT = 4;
+
+	/**
+	 * Bytes taken by each record besides its payload: the payload length, the
+	 * operation and the checksum.
+	 */
+	private static final int RECORD_OVERHEAD = 4 + 1 + 4;
+
+	/**
+	 * The elements of the queue.
+	 */
+	private final CircularArrayQueue<T> queue = new CircularArrayQueue<T>();
+
+	/**
+	 * Directory holding the segments.
+	 */
+	private final Path dir;
+
+	/**
+	 * Turns elements into records and back.
+	 */
+	private final ElementCodec<T> codec;
+
+	/**
+	 * Decides when to force the journal to the disk.
+	 */
+	private final SyncPolicy policy;
+
+	/**
+	 * Size at which a new segment is started.
+	 */
+	private final long segmentSize;
+
+	/**
+	 * Used to checksum each record.
+	 */
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Operations of the current call not yet written to the segment.
+	 */
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/**
+	 * The segment being appended to.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Number of the segment being appended to.
+	 */
+	private long segment;
+
+	/**
+	 * Bytes in the segment, including those still in the buffer.
+	 */
+	private long segmentBytes;
+
+	/**
+	 * Number of operations logged since the last sync.
+	 */
+	private int pending = 0;
+
+	/**
+	 * The value of {@code System.nanoTime()} at the last sync.
+	 */
+	private long lastSync = System.nanoTime();
+
+	/**
+	 * Used to open the queue journaled in the given directory, with the
+	 * default segment size.
+	 *
+	 * @param dir
+	 *            The directory holding the journal, created if need be
+	 * @param codec
+	 *            Turns elements into bytes and back
+	 * @param policy
+	 *            Decides when to force the journal to the disk
+	 * @throws IOException
+	 *             If the journal cannot be read or written
+	 */
+	public JournaledQueue(Path dir, ElementCodec<T> codec, SyncPolicy policy) throws IOException {
+		this(dir, codec, policy, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Used to open the queue journaled in the given directory, replaying any
+	 * operations already logged there.
+	 *
+	 * @param dir
+	 *            The directory holding the journal, created if need be
+	 * @param codec
+	 *            Turns elements into bytes and back
+	 * @param policy
+	 *            Decides when to force the journal to the disk
+	 * @param segmentSize
+	 *            The size in bytes at which a new segment is started
+	 * @throws IOException
+	 *             If the journal cannot be read or written
+	 */
+	public JournaledQueue(Path dir, ElementCodec<T> codec, SyncPolicy policy, long segmentSize)
+			throws IOException {
+		if (dir == null || codec == null || policy == null) {
+			throw new NullPointerException();
+		}
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.dir = dir;
+		this.codec = codec;
+		this.policy = policy;
+		this.segmentSize = segmentSize;
+		Files.createDirectories(dir);
+		List<Long> segments = segments();
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			long end = replay(segments.get(i));
+			if (end >= 0) {
+				segment = segments.get(i);
+				channel = FileChannel.open(segmentPath(segment), StandardOpenOption.WRITE);
+				channel.truncate(end);
+				channel.position(end);
+				segmentBytes = end;
+				deleteBefore(segment);
+				break;
+			}
+			// a snapshot cut short by a crash, before anything was logged after it
+			Files.delete(segmentPath(segments.get(i)));
+		}
+		if (channel == null) {
+			startSegment(segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1);
+		}
+	}
+
+	/**
+	 * Lists the numbers of the segments in the directory, oldest first.
+	 */
+	private List<Long> segments() throws IOException {
+		List<Long> segments = new ArrayList<Long>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+			for (Path f : files) {
+				String name = f.getFileName().toString();
+				try {
+					segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// not a segment
+				}
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Used to find the file holding the given segment.
+	 */
+	private Path segmentPath(long segment) {
+		return dir.resolve(String.format("%s%020d%s", PREFIX, segment, SUFFIX));
+	}
+
+	/**
+	 * Deletes the segments older than the given one.
+	 */
+	private void deleteBefore(long segment) throws IOException {
+		for (long s : segments()) {
+			if (s < segment) {
+				Files.delete(segmentPath(s));
+			}
+		}
+	}
+
+	/**
+	 * Replays a segment into the queue.
+	 *
+	 * @return The length of the segment up to the end of its last intact
+	 *         record, or -1 if its snapshot is not complete, in which case the
+	 *         queue is left empty
+	 */
+	private long replay(long segment) throws IOException {
+		queue.clear();
+		try (FileChannel in = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+			MappedByteBuffer b = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			int p = 0, snapshot = -1;
+			while (true) {
+				int len = record(b, p);
+				if (len < 0) {
+					break;
+				}
+				byte op = b.get(p + 4);
+				if (snapshot < 0) {
+					if (op != SNAPSHOT || len != 4) {
+						break;
+					}
+					snapshot = b.getInt(p + 5);
+				} else if (op == ADD) {
+					b.limit(p + 5 + len).position(p + 5);
+					queue.add(codec.decode(b, len));
+					b.clear();
+					snapshot = Math.max(0, snapshot - 1);
+				} else if (snapshot > 0) {
+					break;
+				} else if (op == REMOVE) {
+					queue.poll();
+				} else if (op == CLEAR) {
+					queue.clear();
+				} else {
+					break;
+				}
+				p += RECORD_OVERHEAD + len;
+			}
+			if (snapshot != 0) {
+				queue.clear();
+				return -1;
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * Checks the record at the given offset is whole and its checksum
+	 * matches.
+	 *
+	 * @return The length of its payload, or -1 if it is torn or corrupt
+	 */
+	private int record(ByteBuffer b, int p) {
+		if (b.limit() - p < RECORD_OVERHEAD) {
+			return -1;
+		}
+		int len = b.getInt(p);
+		if (len < 0 || len > b.limit() - p - RECORD_OVERHEAD) {
+			return -1;
+		}
+		b.limit(p + 5 + len).position(p + 4);
+		crc.reset();
+		crc.update(b);
+		b.clear();
+		return (int) crc.getValue() == b.getInt(p + 5 + len) ? len : -1;
+	}
+
+	/**
+	 * Creates a new segment starting with a snapshot of the queue, forces it
+	 * to the disk, and deletes the older segments.
+	 */
+	private void startSegment(long next) throws IOException {
+		FileChannel c = FileChannel.open(segmentPath(next), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE);
+		FileChannel old = channel;
+		if (old != null) {
+			flush();
+		}
+		channel = c;
+		segment = next;
+		segmentBytes = 0;
+		log(SNAPSHOT, null);
+		for (T e : queue) {
+			log(ADD, e);
+		}
+		sync();
+		if (old != null) {
+			old.close();
+		}
+		deleteBefore(segment);
+	}
+
+	/**
+	 * Adds a record for an operation to the buffer. The payload of an
+	 * {@code ADD} is the encoded element, and that of a {@code SNAPSHOT} the
+	 * number of elements which follow it, taken from the queue.
+	 */
+	private void log(byte op, T e) throws IOException {
+		int len = op == ADD ? codec.encodedLength(e) : op == SNAPSHOT ? 4 : 0;
+		if (len < 0) {
+			throw new IllegalArgumentException();
+		}
+		int need = RECORD_OVERHEAD + len;
+		if (buffer.remaining() < need) {
+			flush();
+			if (buffer.capacity() < need) {
+				buffer = ByteBuffer.allocate(need);
+			}
+		}
+		int start = buffer.position();
+		buffer.putInt(len).put(op);
+		if (op == ADD) {
+			try {
+				codec.encode(e, buffer);
+			} catch (RuntimeException x) {
+				buffer.position(start);
+				throw x;
+			}
+			if (buffer.position() != start + 5 + len) {
+				buffer.position(start);
+				throw new IllegalStateException("Codec wrote the wrong number of bytes");
+			}
+		} else if (op == SNAPSHOT) {
+			buffer.putInt(queue.size());
+		}
+		crc.reset();
+		crc.update(buffer.array(), start + 4, 1 + len);
+		buffer.putInt((int) crc.getValue());
+		segmentBytes += need;
+		pending++;
+	}
+
+	/**
+	 * Called at the end of each call which changed the queue, to write its
+	 * operations to the segment, sync if the policy says so, and start a new
+	 * segment once this one is full.
+	 */
+	private void logged() {
+		if (policy.shouldSync(pending, lastSync)) {
+			sync();
+		} else {
+			try {
+				flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		if (segmentBytes >= segmentSize) {
+			try {
+				startSegment(segment + 1);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(T e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		try {
+			log(ADD, e);
+		} catch (IOException x) {
+			throw new UncheckedIOException(x);
+		}
+		queue.add(e);
+		logged();
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.AbstractQueue#addAll(java.util.Collection)
+	 */
+	@Override
+	public boolean addAll(Collection<? extends T> c) {
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		boolean modified = false;
+		try {
+			for (T e : c) {
+				if (e == null) {
+					throw new NullPointerException();
+				}
+				log(ADD, e);
+				queue.add(e);
+				modified = true;
+			}
+		} catch (IOException x) {
+			throw new UncheckedIOException(x);
+		} finally {
+			if (modified) {
+				logged();
+			}
+		}
+		return modified;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#poll()
+	 */
+	@Override
+	public T poll() {
+		if (queue.isEmpty()) {
+			return null;
+		}
+		try {
+			log(REMOVE, null);
+		} catch (IOException x) {
+			throw new UncheckedIOException(x);
+		}
+		T o = queue.poll();
+		logged();
+		return o;
+	}
+
+	/**
+	 * Removes the element at the head, once the consumer which read it with
+	 * {@code peek} has finished with it. The removal is logged only now, so
+	 * if the process dies before this call the element is still in the queue
+	 * when it is reopened.
+	 *
+	 * @return The element removed
+	 * @throws NoSuchElementException
+	 *             If the queue is empty
+	 */
+	public T acknowledge() {
+		if (queue.isEmpty()) {
+			throw new NoSuchElementException();
+		}
+		return poll();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#peek()
+	 */
+	@Override
+	public T peek() {
+		return queue.peek();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#size()
+	 */
+	@Override
+	public int size() {
+		return queue.size();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#clear()
+	 */
+	@Override
+	public void clear() {
+		if (queue.isEmpty()) {
+			return;
+		}
+		try {
+			log(CLEAR, null);
+		} catch (IOException x) {
+			throw new UncheckedIOException(x);
+		}
+		queue.clear();
+		logged();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#iterator()
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		final Iterator<T> it = queue.iterator();
+		return new Iterator<T>() {
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public T next() {
+				return it.next();
+			}
+		};
+	}
+
+	/**
+	 * Writes the buffer to the segment.
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes every operation logged so far and forces them to the disk.
+	 *
+	 * @throws UncheckedIOException
+	 *             If the journal cannot be written
+	 */
+	public void sync() {
+		try {
+			flush();
+			channel.force(false);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		pending = 0;
+		lastSync = System.nanoTime();
+	}
+
+	/**
+	 * Syncs the journal and closes the current segment. The queue must not be
+	 * used afterwards.
+	 *
+	 * @throws IOException
+	 *             If the journal cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			sync();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,629 @@
+// Generated from templates/PrimitiveCircularArrayQueue.java.template by
+// templates/generate.sh. Edit the template and regenerate rather than
+// editing this file.
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Resizable circular array queue of primitive {@code long} values. Behaves like
+ * a {@code CircularArrayQueue<Long>}, using the same head and tail pointers
+ * and the same resizing strategy, but stores the values in an {@code long[]} so
+ * that adding and removing never boxes.
+ *
+ * Since a primitive cannot be {@code null}, the {@code poll} and {@code peek}
+ * style methods return the queue's missing value (0 unless otherwise given on
+ * construction) when the queue is empty. Use {@code isEmpty} or the throwing
+ * {@code removeLong} and {@code elementLong} methods if the missing value is also
+ * a legitimate element.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue
+ */
+public class LongCircularArrayQueue implements Serializable, Cloneable, Iterable<Long> {
+
+	/**
+	 * Generated serial ID for serialization of this collection.
+	 */
+	private static final long serialVersionUID = -3050417331564781139L;
+
+	/**
+	 * The default capacity of the queue when none is provided by the user.
+	 */
+	private static final int DEFAULT_CAPACITY = 10;
+
+	/**
+	 * Empty element array, faster than allocating a new empty array multiple
+	 * times.
+	 */
+	private static final long[] EMPTY_ELEMENTS = {};
+
+	/**
+	 * Underlying array storing values which have been added to the queue.
+	 */
+	private long[] elements;
+
+	/**
+	 * Current capacity of the queue (equal to the size of the elements array,
+	 * not necessarily equal to the number of visible values in the queue).
+	 */
+	private int capacity;
+
+	/**
+	 * Location of the tail pointer. Points to the slot after the last
+	 * accessible value in the queue, i.e. the one that will be written next
+	 * upon an {@code addLong(long e)} method call.
+	 */
+	private int tail = 0;
+
+	/**
+	 * Current location of the head pointer. Points to the next value in the
+	 * array to be removed.
+	 */
+	private int head = 0;
+
+	/**
+	 * Current size or number of values in the queue.
+	 */
+	private int size = 0;
+
+	/**
+	 * Number of modifications made to this queue. For use when checking for
+	 * {@code ConcurrentModificationException}s to be thrown
+	 */
+	private int mods = 0;
+
+	/**
+	 * Value returned by {@code pollLong} and {@code peekLong} when the queue is
+	 * empty.
+	 */
+	private final long missingValue;
+
+	/**
+	 * Used to create a queue with an initial capacity and the value to report
+	 * when polling or peeking an empty queue.
+	 *
+	 * @param initialCapacity
+	 *            The capacity with which to create the queue
+	 * @param missingValue
+	 *            The value returned by {@code pollLong} and {@code peekLong}
+	 *            when the queue is empty
+	 */
+	public LongCircularArrayQueue(int initialCapacity, long missingValue) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException();
+		}
+		if (initialCapacity == 0) {
+			elements = EMPTY_ELEMENTS;
+			capacity = 0;
+		} else {
+			elements = new long[initialCapacity];
+			capacity = initialCapacity;
+		}
+		this.missingValue = missingValue;
+	}
+
+	/**
+	 * Used to create a queue with an initial capacity, useful if the user knows
+	 * roughly what size queue will be required ahead of time to limit the
+	 * number of resizing operations
+	 *
+	 * @param initialCapacity
+	 *            The capacity with which to create the queue
+	 */
+	public LongCircularArrayQueue(int initialCapacity) {
+		this(initialCapacity, 0);
+	}
+
+	/**
+	 * Constructor to create a queue holding the given values, in order. The
+	 * initial capacity of the queue is equal to the length of the array.
+	 *
+	 * @param values
+	 *            The values to add to the queue initially
+	 */
+	public LongCircularArrayQueue(long[] values) {
+		this(values.length, 0);
+		System.arraycopy(values, 0, elements, 0, values.length);
+		size = values.length;
+		tail = size;
+	}
+
+	/**
+	 * Default constructor used to create a queue when the size it may expand to
+	 * is not well known beforehand
+	 */
+	public LongCircularArrayQueue() {
+		this(DEFAULT_CAPACITY, 0);
+	}
+
+	/**
+	 * Used to access the current capacity (size of underlying array).
+	 *
+	 * @return The current capacity of the queue
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The value returned by {@code pollLong} and {@code peekLong} when
+	 *         the queue is empty
+	 */
+	public long missingValue() {
+		return missingValue;
+	}
+
+	/**
+	 * @return The number of values in the queue
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return True if there are no values in the queue
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Checks whether the given value is present in the queue.
+	 *
+	 * @param e
+	 *            The value to look for
+	 * @return True if at least one value in the queue is equal to the given one
+	 */
+	public boolean contains(long e) {
+		int h = head;
+		for (int cnt = 0; cnt < size; cnt++, h++) {
+			if (h == capacity) {
+				h = 0;
+			}
+			if (same(elements[h], e)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compares two values the way {@code Long.equals} would, so that the
+	 * queue behaves like the boxed {@code CircularArrayQueue} for lookups.
+	 */
+	private static boolean same(long a, long b) {
+		return a == b;
+	}
+
+	/**
+	 * Class used to implement the iterator for this queue. Mirrors the
+	 * iterator of {@code CircularArrayQueue}, but hands out primitive values.
+	 */
+	private class It implements PrimitiveIterator.OfLong {
+
+		/**
+		 * Local pointer for the iterator, initialised to the head of the
+		 * underlying queue.
+		 */
+		private int p = head;
+
+		/**
+		 * Flag to check if next has been called or not, used by the
+		 * {@code remove} method to ensure there is a value to remove.
+		 */
+		private boolean calledNext = false;
+
+		/**
+		 * The number of times next has been called by this iterator. Used to
+		 * tell a full queue (head and tail pointing at the same slot) apart
+		 * from a completely iterated one.
+		 */
+		private int nextCount = 0;
+
+		/**
+		 * Expected modification count, compared against the queue's
+		 * modification count to detect modifications not made through this
+		 * iterator.
+		 */
+		private int xpm = mods;
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return size == 0 ? false : p == tail ? nextCount == 0 : true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.PrimitiveIterator.OfLong#nextLong()
+		 */
+		@Override
+		public long nextLong() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (xpm != mods) {
+				throw new ConcurrentModificationException();
+			}
+			calledNext = true;
+			long o = elements[p++];
+			nextCount++;
+			if (p == capacity && tail != capacity) {
+				p = 0;
+			}
+			return o;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#remove()
+		 */
+		@Override
+		public void remove() {
+			if (!calledNext) {
+				throw new IllegalStateException();
+			}
+			if (xpm != mods) {
+				throw new ConcurrentModificationException();
+			}
+			int prev = p - 1 < 0 ? capacity - 1 : p - 1;
+			int last = tail - 1 < 0 ? capacity - 1 : tail - 1;
+			if (prev <= last) {
+				System.arraycopy(elements, prev + 1, elements, prev, last - prev);
+			} else {
+				System.arraycopy(elements, prev + 1, elements, prev, capacity - 1 - prev);
+				elements[capacity - 1] = elements[0];
+				System.arraycopy(elements, 1, elements, 0, last);
+			}
+			tail = last;
+			p = prev;
+			size--;
+			calledNext = false;
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public PrimitiveIterator.OfLong iterator() {
+		return new It();
+	}
+
+	/**
+	 * Copies the values of the queue, from head to tail, into a new array.
+	 *
+	 * @return An array of length {@code size()} holding the queue's values
+	 */
+	public long[] toLongArray() {
+		return toLongArray(new long[size]);
+	}
+
+	/**
+	 * Copies the values of the queue, from head to tail, into the given array
+	 * if it is large enough, otherwise into a new array of length
+	 * {@code size()}.
+	 *
+	 * @param a
+	 *            The array to copy into, if it is big enough
+	 * @return The array holding the queue's values
+	 */
+	public long[] toLongArray(long[] a) {
+		if (a == null) {
+			throw new NullPointerException();
+		}
+		if (a.length < size) {
+			a = new long[size];
+		}
+		if (size == 0) {
+			return a;
+		}
+		if (head < tail) {
+			System.arraycopy(elements, head, a, 0, size);
+		} else {
+			System.arraycopy(elements, head, a, 0, capacity - head);
+			System.arraycopy(elements, 0, a, capacity - head, tail);
+		}
+		return a;
+	}
+
+	/**
+	 * Local operation used to resize the element array when the current
+	 * capacity is reached, and trying to add a new value. Identical to
+	 * {@code CircularArrayQueue.resize}.
+	 *
+	 * @param newCap
+	 *            The new capacity with which to resize the underlying array
+	 */
+	private void resize(int newCap) {
+		if (newCap < 0) {
+			throw new IllegalStateException();
+		}
+		long[] newElements = new long[newCap];
+		if (head < tail) {
+			System.arraycopy(elements, head, newElements, 0, size);
+		} else {
+			System.arraycopy(elements, head, newElements, 0, capacity - head);
+			System.arraycopy(elements, 0, newElements, capacity - head, tail);
+		}
+		elements = newElements;
+		head = 0;
+		tail = size;
+		capacity = newCap;
+	}
+
+	private int ensureCapacity(int newCapacity) {
+		return (newCapacity == 0) ? 1 : newCapacity;
+	}
+
+	/**
+	 * Removes all values from the queue. The capacity is left unchanged.
+	 */
+	public void clear() {
+		tail = 0;
+		head = 0;
+		size = 0;
+		mods++;
+	}
+
+	/**
+	 * Adds a value to the tail of the queue, growing the underlying array if
+	 * it is full.
+	 *
+	 * @param e
+	 *            The value to add
+	 * @return Always true
+	 */
+	public boolean addLong(long e) {
+		if (tail == capacity) {
+			tail = 0;
+		}
+		if ((tail == head && size != 0) || capacity == 0) {
+			resize(ensureCapacity(capacity << 1));
+		}
+		mods++;
+		elements[tail++] = e;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Equivalent to {@code addLong}, since the queue is unbounded.
+	 *
+	 * @param e
+	 *            The value to add
+	 * @return Always true
+	 */
+	public boolean offerLong(long e) {
+		return addLong(e);
+	}
+
+	/**
+	 * Removes the value at the head of the queue.
+	 *
+	 * @return The removed value
+	 * @throws NoSuchElementException
+	 *             If the queue is empty
+	 */
+	public long removeLong() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		mods++;
+		long o = elements[head++];
+		if (head == capacity) {
+			head = 0;
+		}
+		size--;
+		return o;
+	}
+
+	/**
+	 * Removes the value at the head of the queue.
+	 *
+	 * @return The removed value, or the missing value if the queue is empty
+	 */
+	public long pollLong() {
+		return size == 0 ? missingValue : removeLong();
+	}
+
+	/**
+	 * Retrieves, but does not remove, the value at the head of the queue.
+	 *
+	 * @return The value at the head of the queue
+	 * @throws NoSuchElementException
+	 *             If the queue is empty
+	 */
+	public long elementLong() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return elements[head];
+	}
+
+	/**
+	 * Retrieves, but does not remove, the value at the head of the queue.
+	 *
+	 * @return The value at the head of the queue, or the missing value if the
+	 *         queue is empty
+	 */
+	public long peekLong() {
+		return size == 0 ? missingValue : elements[head];
+	}
+
+	/**
+	 * Adds all of the given values to the tail of the queue, in order.
+	 *
+	 * @param values
+	 *            The values to add
+	 * @return True if the queue was modified
+	 */
+	public boolean addAll(long[] values) {
+		return addAll(values, 0, values.length);
+	}
+
+	/**
+	 * Adds a range of the given array to the tail of the queue, in order. The
+	 * values are copied straight into the ring with at most two array copies,
+	 * growing it first in the same way as {@code CircularArrayQueue.addAll}.
+	 *
+	 * @param values
+	 *            The array holding the values to add
+	 * @param offset
+	 *            Index of the first value to add
+	 * @param length
+	 *            Number of values to add
+	 * @return True if the queue was modified
+	 */
+	public boolean addAll(long[] values, int offset, int length) {
+		if (values == null) {
+			throw new NullPointerException();
+		}
+		if (offset < 0 || length < 0 || offset > values.length - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (length == 0) {
+			return false;
+		}
+		if (capacity < size + length) {
+			resize(ensureCapacity((length << 1) + capacity));
+		}
+		if (tail == capacity) {
+			tail = 0;
+		}
+		int first = Math.min(length, capacity - tail);
+		System.arraycopy(values, offset, elements, tail, first);
+		System.arraycopy(values, offset + first, elements, 0, length - first);
+		tail += length;
+		if (tail > capacity) {
+			tail -= capacity;
+		}
+		size += length;
+		mods++;
+		return true;
+	}
+
+	/**
+	 * Removes up to {@code length} values from the head of the queue, copying
+	 * them in order into the given array. At most two array copies are made,
+	 * and the pointers are only updated once for the whole batch.
+	 *
+	 * @param dst
+	 *            The array to copy the removed values into
+	 * @param offset
+	 *            Index in {@code dst} of the first removed value
+	 * @param length
+	 *            Maximum number of values to remove
+	 * @return The number of values removed
+	 */
+	public int pollInto(long[] dst, int offset, int length) {
+		if (dst == null) {
+			throw new NullPointerException();
+		}
+		if (offset < 0 || length < 0 || offset > dst.length - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		int n = Math.min(length, size);
+		if (n == 0) {
+			return 0;
+		}
+		int first = Math.min(n, capacity - head);
+		System.arraycopy(elements, head, dst, offset, first);
+		System.arraycopy(elements, 0, dst, offset + first, n - first);
+		head += n;
+		if (head >= capacity) {
+			head -= capacity;
+		}
+		size -= n;
+		mods++;
+		return n;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		int result = 1;
+		int h = head;
+		for (int cnt = 0; cnt < size; cnt++, h++) {
+			if (h == capacity) {
+				h = 0;
+			}
+			result = 31 * result + Long.hashCode(elements[h]);
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof LongCircularArrayQueue)) {
+			return false;
+		}
+		LongCircularArrayQueue other = (LongCircularArrayQueue) obj;
+		if (size != other.size) {
+			return false;
+		}
+		int h = head, oh = other.head;
+		for (int cnt = 0; cnt < size; cnt++, h++, oh++) {
+			if (h == capacity) {
+				h = 0;
+			}
+			if (oh == other.capacity) {
+				oh = 0;
+			}
+			if (!same(elements[h], other.elements[oh])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public LongCircularArrayQueue clone() {
+		LongCircularArrayQueue c;
+		try {
+			c = (LongCircularArrayQueue) super.clone();
+			c.elements = Arrays.copyOf(this.elements, capacity);
+			return c;
+		} catch (CloneNotSupportedException e) {
+			throw new InternalError(e);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedCQTest {
+	Path file;
+	MappedCircularQueue<String> queue;
+
+	@Before
+	public void setup() throws IOException {
+		file = Files.createTempFile("mcq", ".dat");
+		Files.delete(file);
+		queue = new MappedCircularQueue<String>(file, 64, ElementCodec.utf8());
+	}
+
+	@After
+	public void teardown() throws IOException {
+		queue.close();
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testOfferPoll() {
+		assertTrue(queue.isEmpty());
+		assertNull(queue.peek());
+		assertNull(queue.poll());
+		assertTrue(queue.offer("one"));
+		assertTrue(queue.offer("two"));
+		assertEquals(2, queue.size());
+		assertEquals("one", queue.peek());
+		assertEquals("one", queue.poll());
+		assertEquals("two", queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testFullAndWrap() {
+		// each record of "abcdefgh" takes 12 bytes, five fit in 64
+		for (int i = 0; i < 5; i++) {
+			assertTrue(queue.offer("abcdefgh"));
+		}
+		assertFalse(queue.offer("abcdefgh"));
+		ArrayDeque<String> expected = new ArrayDeque<String>();
+		Random r = new Random(3);
+		queue.clear();
+		for (int i = 0; i < 2000; i++) {
+			if (r.nextBoolean()) {
+				String s = "x".repeat(r.nextInt(20)) + i;
+				if (queue.offer(s)) {
+					expected.add(s);
+				}
+			} else {
+				assertEquals(expected.poll(), queue.poll());
+			}
+			assertEquals(expected.size(), queue.size());
+		}
+		Iterator<String> it = queue.iterator();
+		for (String s : expected) {
+			assertEquals(s, it.next());
+		}
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testUtf8MatchesGetBytes() {
+		ElementCodec<String> codec = ElementCodec.utf8();
+		ByteBuffer b = ByteBuffer.allocate(64);
+		for (String s : new String[] { "", "abc", "\u00e9t\u00e9", "\u20ac5", "\uD83D\uDE00!", "a\uD800b", "\uDC00",
+				"x\uD83D", "\uDE00\uD83D" }) {
+			byte[] expected = s.getBytes(StandardCharsets.UTF_8);
+			assertEquals(expected.length, codec.encodedLength(s));
+			b.clear();
+			codec.encode(s, b);
+			assertEquals(expected.length, b.position());
+			assertArrayEquals(expected, Arrays.copyOf(b.array(), b.position()));
+		}
+		assertTrue(queue.offer("a\uD800b"));
+		assertEquals("a?b", queue.poll());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLarge() {
+		queue.offer("x".repeat(61));
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		for (int i = 0; i < 7; i++) {
+			queue.add("e" + i);
+		}
+		queue.poll();
+		queue.close();
+		queue = new MappedCircularQueue<String>(file, 1024, ElementCodec.utf8());
+		assertEquals(64, queue.capacity());
+		assertEquals(6, queue.size());
+		for (int i = 1; i < 7; i++) {
+			assertEquals("e" + i, queue.poll());
+		}
+	}
+
+	@Test
+	public void testReopenAfterCrash() throws IOException {
+		for (int i = 0; i < 12; i++) {
+			queue.add("e" + i);
+			if (i % 2 == 1) {
+				queue.poll();
+			}
+		}
+		// open again without closing, as a new process would after a crash
+		MappedCircularQueue<String> reopened = new MappedCircularQueue<String>(file, 64, ElementCodec.utf8());
+		assertEquals(6, reopened.size());
+		for (int i = 6; i < 12; i++) {
+			assertEquals("e" + i, reopened.poll());
+		}
+		reopened.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAQueue() throws IOException {
+		Path other = Files.createTempFile("mcq", ".dat");
+		try {
+			Files.write(other, new byte[5000]);
+			new MappedCircularQueue<String>(other, 64, ElementCodec.utf8());
+		} finally {
+			Files.delete(other);
+		}
+	}
+}
@@ -0,0 +1,448 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Persistent queue whose elements live in a memory mapped file rather than on
+ * the heap, so they survive the process being restarted. The file starts with
+ * a header page holding the head, tail and size, followed by a ring of bytes
+ * laid out as {@code CircularArrayQueue} lays out its array: elements are
+ * written at the tail and read from the head, which wrap round to the start of
+ * the ring. Each element is stored as a record of its encoded length followed
+ * by the bytes written by the {@code ElementCodec}, so adding an element is a
+ * write into mapped memory instead of a heap allocation.
+ *
+ * The head and tail are byte counters which only ever increase, and are
+ * mapped onto the ring by taking them modulo its capacity. A record never
+ * wraps: if there is not room for it before the end of the ring, the rest of
+ * the ring is marked as padding and the record starts again at the beginning.
+ *
+ * Records are written before the tail is moved past them, so a crash never
+ * exposes a partly written element. {@code close} marks the header clean, and
+ * reopening a cleanly closed queue only reads the header. After a crash the
+ * size is recounted from the record lengths between the head and tail, without
+ * decoding any elements. Writes reach the operating system as soon as they are
+ * made, which is enough to survive the process dying; {@code force} also
+ * flushes them to the disk.
+ *
+ * The queue is bounded by the size of the ring, so {@code offer} returns false
+ * when there is no room for an element. It is not thread safe, null elements
+ * are not permitted, and the iterator does not support removal.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue
+ * @see ElementCodec
+ * @param <T>
+ *            Type of object to be stored in the queue
+ */
+public class MappedCircularQueue<T> extends AbstractQueue<T> implements Closeable {
+
+	/**
+	 * Marks a file as holding a queue, "MCQ1".
+	 */
+	private static final int MAGIC = 0x4D435131;
+
+	/**
+	 * Size of the header page at the start of the file.
+	 */
+	private static final int HEADER_SIZE = 4096;
+
+	/**
+	 * Offsets of the fields of the header.
+	 */
+	private static final int MAGIC_OFFSET = 0, CAPACITY_OFFSET = 4, CLEAN_OFFSET = 8, HEAD_OFFSET = 16,
+			TAIL_OFFSET = 24, SIZE_OFFSET = 32;
+
+	/**
+	 * Length stored in place of a record to mark the rest of the ring as
+	 * padding.
+	 */
+	private static final int PADDING = -1;
+
+	/**
+	 * Bytes taken by the length before each record.
+	 */
+	private static final int LENGTH_BYTES = 4;
+
+	/**
+	 * The file the queue is mapped from.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The header page.
+	 */
+	private final MappedByteBuffer header;
+
+	/**
+	 * The ring of records following the header.
+	 */
+	private final MappedByteBuffer ring;
+
+	/**
+	 * View of the ring whose position and limit are moved to each record
+	 * handed to the codec.
+	 */
+	private final ByteBuffer window;
+
+	/**
+	 * Turns elements into records and back.
+	 */
+	private final ElementCodec<T> codec;
+
+	/**
+	 * Number of bytes in the ring.
+	 */
+	private final int capacity;
+
+	/**
+	 * Byte counter of the next record to be read.
+	 */
+	private long head;
+
+	/**
+	 * Byte counter one past the last record written.
+	 */
+	private long tail;
+
+	/**
+	 * Number of records between the head and the tail.
+	 */
+	private int size;
+
+	/**
+	 * Number of modifications made to the queue, for the fail-fast iterator.
+	 */
+	private int mods = 0;
+
+	/**
+	 * Used to open the queue stored in the given file, or create an empty one
+	 * if the file does not exist or is empty.
+	 *
+	 * @param file
+	 *            The file holding the queue
+	 * @param capacity
+	 *            The number of bytes of records the ring holds, used only when
+	 *            creating a new queue. Each record takes four bytes more than
+	 *            its encoded element
+	 * @param codec
+	 *            Turns elements into bytes and back
+	 * @throws IOException
+	 *             If the file cannot be opened or mapped, or does not hold a
+	 *             queue
+	 */
+	public MappedCircularQueue(Path file, int capacity, ElementCodec<T> codec) throws IOException {
+		if (file == null || codec == null) {
+			throw new NullPointerException();
+		}
+		if (capacity < LENGTH_BYTES || capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+			throw new IllegalArgumentException();
+		}
+		this.codec = codec;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			boolean created = channel.size() == 0;
+			if (created) {
+				header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				header.putInt(CAPACITY_OFFSET, capacity);
+			} else {
+				if (channel.size() < HEADER_SIZE) {
+					throw new IOException("Not a queue file: " + file);
+				}
+				header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				if (header.getInt(MAGIC_OFFSET) != MAGIC
+						|| channel.size() != (long) HEADER_SIZE + header.getInt(CAPACITY_OFFSET)) {
+					throw new IOException("Not a queue file: " + file);
+				}
+			}
+			this.capacity = header.getInt(CAPACITY_OFFSET);
+			ring = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, this.capacity);
+			window = ring.duplicate();
+			if (created) {
+				header.putInt(MAGIC_OFFSET, MAGIC);
+			} else {
+				head = header.getLong(HEAD_OFFSET);
+				tail = header.getLong(TAIL_OFFSET);
+				size = header.getInt(CLEAN_OFFSET) != 0 ? header.getInt(SIZE_OFFSET) : recount();
+			}
+			header.putInt(CLEAN_OFFSET, 0);
+			header.putInt(SIZE_OFFSET, size);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Counts the records between the head and tail, after a crash may have
+	 * left the stored size out of step with them.
+	 */
+	private int recount() throws IOException {
+		if (head < 0 || tail < head || tail - head > capacity) {
+			throw new IOException("Corrupt queue header");
+		}
+		int n = 0;
+		for (long p = skipPadding(head); p < tail; p = skipPadding(p)) {
+			int len = ring.getInt(index(p));
+			if (len < 0 || len > capacity - LENGTH_BYTES - index(p)) {
+				throw new IOException("Corrupt queue record at " + p);
+			}
+			p += LENGTH_BYTES + len;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Used to access the number of bytes in the ring.
+	 *
+	 * @return The capacity of the ring in bytes
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Maps a byte counter onto the ring.
+	 */
+	private int index(long p) {
+		return (int) (p % capacity);
+	}
+
+	/**
+	 * Moves a byte counter past the padding at the end of the ring, if it
+	 * points at padding rather than a record.
+	 */
+	private long skipPadding(long p) {
+		int i = index(p);
+		int toEnd = capacity - i;
+		if (toEnd < LENGTH_BYTES || ring.getInt(i) == PADDING) {
+			return p + toEnd;
+		}
+		return p;
+	}
+
+	/**
+	 * Stores the head, tail and size in the header.
+	 */
+	private void writeHeader() {
+		header.putInt(SIZE_OFFSET, size);
+		header.putLong(HEAD_OFFSET, head);
+		header.putLong(TAIL_OFFSET, tail);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(T e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		int len = codec.encodedLength(e);
+		if (len < 0 || len > capacity - LENGTH_BYTES) {
+			throw new IllegalArgumentException();
+		}
+		int need = LENGTH_BYTES + len;
+		int i = index(tail);
+		int toEnd = capacity - i;
+		int pad = toEnd < need ? toEnd : 0;
+		if (tail + pad + need - head > capacity) {
+			return false;
+		}
+		if (pad != 0) {
+			if (toEnd >= LENGTH_BYTES) {
+				ring.putInt(i, PADDING);
+			}
+			i = 0;
+		}
+		window.limit(i + need).position(i + LENGTH_BYTES);
+		codec.encode(e, window);
+		if (window.position() != i + need) {
+			throw new IllegalStateException("Codec wrote the wrong number of bytes");
+		}
+		ring.putInt(i, len);
+		tail += pad + need;
+		size++;
+		mods++;
+		writeHeader();
+		return true;
+	}
+
+	/**
+	 * Decodes the record starting at the given ring index.
+	 */
+	private T read(int i) {
+		int len = ring.getInt(i);
+		window.limit(i + LENGTH_BYTES + len).position(i + LENGTH_BYTES);
+		return codec.decode(window, len);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#poll()
+	 */
+	@Override
+	public T poll() {
+		if (size == 0) {
+			return null;
+		}
+		long h = skipPadding(head);
+		int i = index(h);
+		T o = read(i);
+		head = h + LENGTH_BYTES + ring.getInt(i);
+		size--;
+		mods++;
+		writeHeader();
+		return o;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#peek()
+	 */
+	@Override
+	public T peek() {
+		return size == 0 ? null : read(index(skipPadding(head)));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#size()
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#clear()
+	 */
+	@Override
+	public void clear() {
+		head = tail;
+		size = 0;
+		mods++;
+		writeHeader();
+	}
+
+	/**
+	 * Flushes every change made so far to the disk, so it survives the machine
+	 * failing as well as the process.
+	 */
+	public void force() {
+		ring.force();
+		header.force();
+	}
+
+	/**
+	 * Flushes the queue to the disk, marks the header clean so the next open
+	 * can trust the stored size, and closes the file.
+	 *
+	 * @throws IOException
+	 *             If the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		force();
+		header.putInt(CLEAN_OFFSET, 1);
+		header.force();
+		channel.close();
+	}
+
+	/**
+	 * Fail-fast iterator decoding each record from head to tail.
+	 */
+	private class It implements Iterator<T> {
+
+		/**
+		 * Byte counter of the next record.
+		 */
+		private long p = head;
+
+		/**
+		 * Number of records not yet handed out.
+		 */
+		private int remaining = size;
+
+		/**
+		 * Expected modification count.
+		 */
+		private final int xpm = mods;
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public T next() {
+			if (remaining <= 0) {
+				throw new NoSuchElementException();
+			}
+			if (xpm != mods) {
+				throw new ConcurrentModificationException();
+			}
+			p = skipPadding(p);
+			int i = index(p);
+			T o = read(i);
+			p += LENGTH_BYTES + ring.getInt(i);
+			remaining--;
+			return o;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#iterator()
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new It();
+	}
+}
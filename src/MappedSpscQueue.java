@@ -0,0 +1,426 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Lock-free bounded queue for exactly one producer and exactly one consumer,
+ * held in a memory mapped file so that the two may be in different processes
+ * on the same machine. Each process opens the same file, one only adding
+ * elements and the other only removing them, and elements pass between them
+ * through shared memory without any system call.
+ *
+ * The protocol is that of {@code SpscCircularArrayQueue}, applied to a ring
+ * of bytes instead of an array. The head and tail are byte counters which
+ * only ever increase, kept in the header page of the file on cache lines of
+ * their own, so the producer and consumer do not falsely share. Each element
+ * is written as its encoded length followed by the bytes from the
+ * {@code ElementCodec}, then published by storing the tail with release
+ * semantics; the consumer reads the tail with acquire semantics before the
+ * element, and frees its bytes by storing the head with release semantics.
+ * Each side keeps a private copy of the other's counter, only rereading the
+ * shared one when the copy says the ring is full or empty. As in
+ * {@code MappedCircularQueue}, a record which would run past the end of the
+ * ring is written at the start instead, with the end marked as padding.
+ *
+ * The file must be created by one process before the other opens it. Only
+ * one thread in one process may call the adding methods ({@code offer},
+ * {@code add}), and only one the removing methods ({@code poll},
+ * {@code remove}, {@code peek}, {@code clear}) and the iterator.
+ * {@code size} and {@code isEmpty} may be used from anywhere, but are only
+ * estimates while the queue is in use. Null elements are not permitted, and
+ * the iterator does not support removal.
+ *
+ * @author David Brown
+ * @see SpscCircularArrayQueue
+ * @see MappedCircularQueue
+ * @param <T>
+ *            Type of object to be stored in the queue
+ */
+public class MappedSpscQueue<T> extends AbstractQueue<T> implements Closeable {
+
+	/**
+	 * Marks a file as holding a queue, "MSQ1".
+	 */
+	private static final int MAGIC = 0x4D535131;
+
+	/**
+	 * Size of the header page at the start of the file.
+	 */
+	private static final int HEADER_SIZE = 4096;
+
+	/**
+	 * Offsets of the fields of the header. The tail and head, each with the
+	 * count of elements that have passed it, are 128 bytes apart so that
+	 * processors which fetch cache lines in pairs still keep them apart.
+	 */
+	private static final int MAGIC_OFFSET = 0, CAPACITY_OFFSET = 4, TAIL_OFFSET = 128, TAIL_COUNT_OFFSET = 136,
+			HEAD_OFFSET = 256, HEAD_COUNT_OFFSET = 264;
+
+	/**
+	 * Length stored in place of a record to mark the rest of the ring as
+	 * padding.
+	 */
+	private static final int PADDING = -1;
+
+	/**
+	 * Bytes taken by the length before each record.
+	 */
+	private static final int LENGTH_BYTES = 4;
+
+	/**
+	 * Handle on the longs of a buffer, used to access the counters with the
+	 * memory ordering the protocol needs.
+	 */
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+			ByteOrder.nativeOrder());
+
+	/**
+	 * The file the queue is mapped from.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The header page, holding the counters.
+	 */
+	private final MappedByteBuffer header;
+
+	/**
+	 * The ring of records following the header.
+	 */
+	private final MappedByteBuffer ring;
+
+	/**
+	 * Views of the ring used to hand records to the codec, one for each side
+	 * so the producer and consumer may be threads of the same process.
+	 */
+	private final ByteBuffer producerWindow, consumerWindow;
+
+	/**
+	 * Turns elements into records and back.
+	 */
+	private final ElementCodec<T> codec;
+
+	/**
+	 * Number of bytes in the ring, always a power of two.
+	 */
+	private final int capacity;
+
+	/**
+	 * Mask used to map the counters onto the ring.
+	 */
+	private final int mask;
+
+	/**
+	 * Producer side copy of the head counter.
+	 */
+	private long headCache;
+
+	/**
+	 * Consumer side copy of the tail counter.
+	 */
+	private long tailCache;
+
+	/**
+	 * Used to open the queue in the given file, or create an empty one if the
+	 * file does not exist or is empty.
+	 *
+	 * @param file
+	 *            The file holding the queue
+	 * @param capacity
+	 *            The minimum number of bytes of records the ring holds, rounded
+	 *            up to the next power of two, and used only when creating a new
+	 *            queue. Each record takes four bytes more than its encoded
+	 *            element
+	 * @param codec
+	 *            Turns elements into bytes and back
+	 * @throws IOException
+	 *             If the file cannot be opened or mapped, or does not hold a
+	 *             queue
+	 */
+	public MappedSpscQueue(Path file, int capacity, ElementCodec<T> codec) throws IOException {
+		if (file == null || codec == null) {
+			throw new NullPointerException();
+		}
+		int cap = PaddedRingIndices.ringCapacity(Math.max(capacity, LENGTH_BYTES));
+		this.codec = codec;
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			long length = channel.size();
+			if (length == 0) {
+				header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				header.putInt(CAPACITY_OFFSET, cap);
+			} else {
+				if (length < HEADER_SIZE) {
+					throw new IOException("Not a queue file: " + file);
+				}
+				header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				cap = header.getInt(CAPACITY_OFFSET);
+				if (header.getInt(MAGIC_OFFSET) != MAGIC || Integer.bitCount(cap) != 1
+						|| length != (long) HEADER_SIZE + cap) {
+					throw new IOException("Not a queue file: " + file);
+				}
+			}
+			this.capacity = cap;
+			mask = cap - 1;
+			ring = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, cap);
+			producerWindow = ring.duplicate();
+			consumerWindow = ring.duplicate();
+			if (length == 0) {
+				header.putInt(MAGIC_OFFSET, MAGIC);
+			}
+			headCache = (long) LONGS.getAcquire(header, HEAD_OFFSET);
+			tailCache = (long) LONGS.getAcquire(header, TAIL_OFFSET);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Used to access the number of bytes in the ring.
+	 *
+	 * @return The capacity of the ring in bytes
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Moves a byte counter past the padding at the end of the ring, if it
+	 * points at padding rather than a record.
+	 */
+	private long skipPadding(long p) {
+		int i = (int) p & mask;
+		int toEnd = capacity - i;
+		if (toEnd < LENGTH_BYTES || ring.getInt(i) == PADDING) {
+			return p + toEnd;
+		}
+		return p;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(T e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		int len = codec.encodedLength(e);
+		if (len < 0 || len > capacity - LENGTH_BYTES) {
+			throw new IllegalArgumentException();
+		}
+		final long t = (long) LONGS.get(header, TAIL_OFFSET);
+		int need = LENGTH_BYTES + len;
+		int i = (int) t & mask;
+		int toEnd = capacity - i;
+		int pad = toEnd < need ? toEnd : 0;
+		long end = t + pad + need;
+		if (end - headCache > capacity) {
+			headCache = (long) LONGS.getAcquire(header, HEAD_OFFSET);
+			if (end - headCache > capacity) {
+				return false;
+			}
+		}
+		if (pad != 0) {
+			if (toEnd >= LENGTH_BYTES) {
+				ring.putInt(i, PADDING);
+			}
+			i = 0;
+		}
+		producerWindow.limit(i + need).position(i + LENGTH_BYTES);
+		codec.encode(e, producerWindow);
+		if (producerWindow.position() != i + need) {
+			throw new IllegalStateException("Codec wrote the wrong number of bytes");
+		}
+		ring.putInt(i, len);
+		LONGS.setOpaque(header, TAIL_COUNT_OFFSET, (long) LONGS.get(header, TAIL_COUNT_OFFSET) + 1);
+		LONGS.setRelease(header, TAIL_OFFSET, end);
+		return true;
+	}
+
+	/**
+	 * Used by the consumer to find the next record, skipping any padding.
+	 *
+	 * @return The byte counter of the next record, or -1 if the queue is empty
+	 */
+	private long next() {
+		final long h = (long) LONGS.get(header, HEAD_OFFSET);
+		if (h >= tailCache) {
+			tailCache = (long) LONGS.getAcquire(header, TAIL_OFFSET);
+			if (h >= tailCache) {
+				return -1;
+			}
+		}
+		return skipPadding(h);
+	}
+
+	/**
+	 * Decodes the record starting at the given ring index.
+	 */
+	private T read(int i, int len) {
+		consumerWindow.limit(i + LENGTH_BYTES + len).position(i + LENGTH_BYTES);
+		return codec.decode(consumerWindow, len);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#poll()
+	 */
+	@Override
+	public T poll() {
+		final long h = next();
+		if (h < 0) {
+			return null;
+		}
+		int i = (int) h & mask;
+		int len = ring.getInt(i);
+		T o = read(i, len);
+		LONGS.setOpaque(header, HEAD_COUNT_OFFSET, (long) LONGS.get(header, HEAD_COUNT_OFFSET) + 1);
+		LONGS.setRelease(header, HEAD_OFFSET, h + LENGTH_BYTES + len);
+		return o;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#peek()
+	 */
+	@Override
+	public T peek() {
+		final long h = next();
+		if (h < 0) {
+			return null;
+		}
+		int i = (int) h & mask;
+		return read(i, ring.getInt(i));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#size()
+	 */
+	@Override
+	public int size() {
+		long after = (long) LONGS.getAcquire(header, HEAD_COUNT_OFFSET);
+		while (true) {
+			long before = after;
+			long t = (long) LONGS.getAcquire(header, TAIL_COUNT_OFFSET);
+			after = (long) LONGS.getAcquire(header, HEAD_COUNT_OFFSET);
+			if (before == after) {
+				long size = t - after;
+				return (int) (size < 0 ? 0 : Math.min(size, Integer.MAX_VALUE));
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return (long) LONGS.getAcquire(header, HEAD_OFFSET) >= (long) LONGS.getAcquire(header, TAIL_OFFSET);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#clear()
+	 */
+	@Override
+	public void clear() {
+		while (poll() != null) {
+		}
+	}
+
+	/**
+	 * Closes the file. The mapping is only released once the queue has been
+	 * collected, but the queue must not be used afterwards.
+	 *
+	 * @throws IOException
+	 *             If the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Consumer side iterator over the records between the head and the tail
+	 * as they were when it was created.
+	 */
+	private class It implements Iterator<T> {
+
+		/**
+		 * Byte counter of the next record.
+		 */
+		private long p = (long) LONGS.get(header, HEAD_OFFSET);
+
+		/**
+		 * Byte counter one past the last record to be returned.
+		 */
+		private final long end = (long) LONGS.getAcquire(header, TAIL_OFFSET);
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return p < end;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public T next() {
+			if (p >= end) {
+				throw new NoSuchElementException();
+			}
+			p = skipPadding(p);
+			int i = (int) p & mask;
+			int len = ring.getInt(i);
+			p += LENGTH_BYTES + len;
+			return read(i, len);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#iterator()
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new It();
+	}
+}
@@ -0,0 +1,138 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedSpscTest {
+	Path file;
+	MappedSpscQueue<String> queue;
+
+	@Before
+	public void setup() throws IOException {
+		file = Files.createTempFile("msq", ".dat");
+		Files.delete(file);
+		queue = new MappedSpscQueue<String>(file, 60, ElementCodec.utf8());
+	}
+
+	@After
+	public void teardown() throws IOException {
+		queue.close();
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testOfferPoll() {
+		assertEquals(64, queue.capacity());
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		assertTrue(queue.offer("one"));
+		assertTrue(queue.offer("two"));
+		assertEquals(2, queue.size());
+		assertEquals("one", queue.peek());
+		Iterator<String> it = queue.iterator();
+		assertEquals("one", it.next());
+		assertEquals("two", it.next());
+		assertFalse(it.hasNext());
+		assertEquals("one", queue.poll());
+		assertEquals("two", queue.poll());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testFullAndWrap() {
+		for (int i = 0; i < 1000; i++) {
+			String s = "abcdefg".substring(i % 7) + i;
+			int n = 0;
+			while (queue.offer(s + n)) {
+				n++;
+			}
+			assertTrue(n > 0);
+			for (int j = 0; j < n; j++) {
+				assertEquals(s + j, queue.poll());
+			}
+			assertNull(queue.poll());
+		}
+	}
+
+	@Test
+	public void testSharedMapping() throws IOException {
+		MappedSpscQueue<String> other = new MappedSpscQueue<String>(file, 0, ElementCodec.utf8());
+		assertEquals(64, other.capacity());
+		queue.add("hello");
+		assertEquals("hello", other.poll());
+		assertTrue(queue.isEmpty());
+		other.close();
+	}
+
+	@Test
+	public void testThreads() throws InterruptedException {
+		final int n = 20000;
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < n; i++) {
+				while (!queue.offer(Integer.toString(i))) {
+					Thread.yield();
+				}
+			}
+		});
+		producer.start();
+		for (int i = 0; i < n; i++) {
+			String s;
+			while ((s = queue.poll()) == null) {
+				Thread.yield();
+			}
+			assertEquals(Integer.toString(i), s);
+		}
+		producer.join();
+	}
+
+	@Test
+	public void testTwoProcesses() throws IOException, InterruptedException {
+		final int n = 20000;
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				MappedSpscTest.class.getName(), file.toString(), Integer.toString(n)).inheritIO().start();
+		try {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+			for (int i = 0; i < n; i++) {
+				String s;
+				while ((s = queue.poll()) == null) {
+					assertTrue(System.nanoTime() < deadline);
+					Thread.yield();
+				}
+				assertEquals(Integer.toString(i), s);
+			}
+			assertTrue(child.waitFor(60, TimeUnit.SECONDS));
+			assertEquals(0, child.exitValue());
+			assertNull(queue.poll());
+		} finally {
+			child.destroy();
+		}
+	}
+
+	/**
+	 * Producer run in a separate process by {@code testTwoProcesses}.
+	 */
+	public static void main(String[] args) throws IOException {
+		try (MappedSpscQueue<String> q = new MappedSpscQueue<String>(Paths.get(args[0]), 0,
+				ElementCodec.utf8())) {
+			int n = Integer.parseInt(args[1]);
+			for (int i = 0; i < n; i++) {
+				while (!q.offer(Integer.toString(i))) {
+					Thread.yield();
+				}
+			}
+		}
+	}
+}
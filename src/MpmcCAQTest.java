@@ -0,0 +1,111 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MpmcCAQTest {
+	MpmcCircularArrayQueue<Integer> queue;
+
+	@Before
+	public void setup() {
+		queue = new MpmcCircularArrayQueue<Integer>(10);
+	}
+
+	@Test
+	public void testCapacity() {
+		assertEquals(16, queue.capacity());
+		for (int i = 0; i < 16; i++) {
+			assertTrue(queue.offer(i));
+		}
+		assertFalse(queue.offer(16));
+		assertEquals(16, queue.size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAddWhenFull() {
+		for (int i = 0; i < 17; i++) {
+			queue.add(i);
+		}
+	}
+
+	@Test
+	public void testOrdering() {
+		queue = new MpmcCircularArrayQueue<Integer>(512);
+		int next = 0;
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(queue.offer(i));
+			if (i % 3 == 2) {
+				assertEquals(next, (int) queue.peek());
+				assertEquals(next++, (int) queue.poll());
+				assertEquals(next++, (int) queue.poll());
+			}
+		}
+		assertEquals(1000 - next, queue.size());
+		while (next < 1000) {
+			assertEquals(next++, (int) queue.poll());
+		}
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		assertNull(queue.peek());
+	}
+
+	@Test
+	public void testIterator() {
+		for (int i = 0; i < 12; i++) {
+			queue.offer(i);
+		}
+		queue.poll();
+		int expected = 1;
+		for (Integer e : queue) {
+			assertEquals(expected++, (int) e);
+		}
+		assertEquals(12, expected);
+	}
+
+	@Test
+	public void testManyThreads() throws InterruptedException {
+		final int threads = 3;
+		final int perThread = 200000;
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong received = new AtomicLong();
+		List<Thread> all = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			all.add(new Thread(() -> {
+				for (int i = 1; i <= perThread; i++) {
+					while (!queue.offer(i)) {
+						Thread.yield();
+					}
+				}
+			}));
+			all.add(new Thread(() -> {
+				long local = 0;
+				for (int i = 0; i < perThread; i++) {
+					Integer e;
+					while ((e = queue.poll()) == null) {
+						Thread.yield();
+					}
+					local += e;
+				}
+				sum.addAndGet(local);
+				received.addAndGet(perThread);
+			}));
+		}
+		for (Thread t : all) {
+			t.start();
+		}
+		for (Thread t : all) {
+			t.join();
+		}
+		assertEquals((long) threads * perThread, received.get());
+		assertEquals((long) threads * perThread * (perThread + 1) / 2, sum.get());
+		assertTrue(queue.isEmpty());
+	}
+}
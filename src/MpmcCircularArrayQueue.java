@@ -0,0 +1,270 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Lock-free bounded circular array queue for any number of producer and
+ * consumer threads, after Dmitry Vyukov's bounded MPMC queue. The capacity is
+ * fixed and rounded up to a power of two.
+ *
+ * Every slot of the ring carries a sequence number alongside the element. A
+ * slot whose sequence equals the tail counter is free for the producer that
+ * claims that counter, and a slot whose sequence is one past the head counter
+ * holds an element for the consumer that claims that counter. Producers and
+ * consumers claim counters with a compare-and-set on the tail or head, which
+ * are padded onto separate cache lines, then publish the slot by storing its
+ * next sequence number with release semantics. There is no global lock, so
+ * contention is limited to threads racing for the same counter.
+ *
+ * {@code size}, {@code isEmpty} and the iterator are only estimates while the
+ * queue is in use. Null elements are not permitted, and the iterator does not
+ * support removal.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue
+ * @param <T>
+ *            Type of object to be stored in the queue
+ */
+public class MpmcCircularArrayQueue<T> extends PaddedRingIndices<T> {
+
+	/**
+	 * Handle on the elements of the sequence array.
+	 */
+	private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+
+	/**
+	 * Underlying array storing elements which have been added to the queue.
+	 */
+	private final T[] elements;
+
+	/**
+	 * Sequence number of each slot of the ring. Slot {@code i} starts at
+	 * {@code i}, becomes {@code t + 1} once the producer of counter {@code t}
+	 * has written it, and {@code h + capacity} once the consumer of counter
+	 * {@code h} has emptied it.
+	 */
+	private final long[] sequences;
+
+	/**
+	 * Capacity of the queue, always a power of two.
+	 */
+	private final int capacity;
+
+	/**
+	 * Mask used to map the head and tail counters onto the ring.
+	 */
+	private final int mask;
+
+	/**
+	 * Used to create a queue which can hold at least the given number of
+	 * elements.
+	 *
+	 * @param capacity
+	 *            The minimum capacity of the queue, rounded up to the next
+	 *            power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public MpmcCircularArrayQueue(int capacity) {
+		this.capacity = ringCapacity(capacity);
+		mask = this.capacity - 1;
+		elements = (T[]) new Object[this.capacity];
+		sequences = new long[this.capacity];
+		for (int i = 0; i < this.capacity; i++) {
+			sequences[i] = i;
+		}
+	}
+
+	/**
+	 * Used to access the fixed capacity of the queue.
+	 *
+	 * @return The capacity of the queue
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(T e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		long t = (long) TAIL.getAcquire(this);
+		while (true) {
+			int i = (int) t & mask;
+			long dif = (long) SEQUENCES.getAcquire(sequences, i) - t;
+			if (dif == 0) {
+				long witness = (long) TAIL.compareAndExchange(this, t, t + 1);
+				if (witness == t) {
+					elements[i] = e;
+					SEQUENCES.setRelease(sequences, i, t + 1);
+					return true;
+				}
+				t = witness;
+			} else if (dif < 0) {
+				return false;
+			} else {
+				t = (long) TAIL.getAcquire(this);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#poll()
+	 */
+	@Override
+	public T poll() {
+		long h = (long) HEAD.getAcquire(this);
+		while (true) {
+			int i = (int) h & mask;
+			long dif = (long) SEQUENCES.getAcquire(sequences, i) - (h + 1);
+			if (dif == 0) {
+				long witness = (long) HEAD.compareAndExchange(this, h, h + 1);
+				if (witness == h) {
+					T o = elements[i];
+					elements[i] = null;
+					SEQUENCES.setRelease(sequences, i, h + capacity);
+					return o;
+				}
+				h = witness;
+			} else if (dif < 0) {
+				return null;
+			} else {
+				h = (long) HEAD.getAcquire(this);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#peek()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public T peek() {
+		long h = (long) HEAD.getAcquire(this);
+		while (true) {
+			int i = (int) h & mask;
+			long dif = (long) SEQUENCES.getAcquire(sequences, i) - (h + 1);
+			if (dif < 0) {
+				return null;
+			}
+			if (dif == 0) {
+				T o = (T) ELEMENTS.getAcquire(elements, i);
+				if (o != null && (long) SEQUENCES.getAcquire(sequences, i) == h + 1) {
+					return o;
+				}
+			}
+			h = (long) HEAD.getAcquire(this);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#size()
+	 */
+	@Override
+	public int size() {
+		return ringSize(capacity);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return (long) HEAD.getAcquire(this) == (long) TAIL.getAcquire(this);
+	}
+
+	/**
+	 * Weakly consistent iterator over the elements between the head and tail
+	 * seen when it was created. Slots which have not been published yet, or
+	 * which have already been consumed, are skipped.
+	 */
+	private class It implements Iterator<T> {
+
+		/**
+		 * Counter of the next slot to look at.
+		 */
+		private long p = (long) HEAD.getAcquire(MpmcCircularArrayQueue.this);
+
+		/**
+		 * Counter one past the last slot to look at.
+		 */
+		private final long end = (long) TAIL.getAcquire(MpmcCircularArrayQueue.this);
+
+		/**
+		 * The next element to hand out, or null if there are no more.
+		 */
+		private T next = advance();
+
+		@SuppressWarnings("unchecked")
+		private T advance() {
+			while (p < end) {
+				long c = p++;
+				int i = (int) c & mask;
+				if ((long) SEQUENCES.getAcquire(sequences, i) == c + 1) {
+					T o = (T) ELEMENTS.getAcquire(elements, i);
+					if (o != null && (long) SEQUENCES.getAcquire(sequences, i) == c + 1) {
+						return o;
+					}
+				}
+			}
+			return null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public T next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			T o = next;
+			next = advance();
+			return o;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#iterator()
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new It();
+	}
+}
@@ -0,0 +1,129 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MpscCAQTest {
+	MpscCircularArrayQueue<Integer> queue;
+
+	@Before
+	public void setup() {
+		queue = new MpscCircularArrayQueue<Integer>(4);
+	}
+
+	@Test
+	public void testGrowsAcrossChunks() {
+		assertEquals(4, queue.chunkCapacity());
+		for (int i = 0; i < 100; i++) {
+			assertTrue(queue.offer(i));
+		}
+		assertEquals(100, queue.size());
+		Iterator<Integer> it = queue.iterator();
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (int) it.next());
+		}
+		assertFalse(it.hasNext());
+
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (int) queue.peek());
+			assertEquals(i, (int) queue.poll());
+		}
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		assertNull(queue.peek());
+	}
+
+	@Test
+	public void testDrain() {
+		for (int i = 0; i < 10; i++) {
+			queue.offer(i);
+		}
+		List<Integer> drained = new ArrayList<>();
+		assertEquals(7, queue.drain(drained::add, 7));
+		assertEquals(3, queue.size());
+		assertEquals(3, queue.drain(drained::add, 100));
+		assertEquals(0, queue.drain(drained::add, 100));
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i, (int) drained.get(i));
+		}
+
+		queue.offer(10);
+		assertEquals(10, (int) queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testDrainConsumerThrows() {
+		for (int i = 0; i < 10; i++) {
+			queue.offer(i);
+		}
+		List<Integer> drained = new ArrayList<>();
+		try {
+			queue.drain(e -> {
+				if (e == 5) {
+					throw new IllegalStateException();
+				}
+				drained.add(e);
+			}, 100);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals(5, drained.size());
+		}
+		assertEquals(5, queue.size());
+		for (int i = 5; i < 10; i++) {
+			assertEquals(i, (int) queue.poll());
+		}
+		assertNull(queue.poll());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullElement() {
+		queue.offer(null);
+	}
+
+	@Test
+	public void testManyProducers() throws InterruptedException {
+		final int producers = 4;
+		final int perProducer = 100000;
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			final int id = p;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < perProducer; i++) {
+					queue.offer(id * perProducer + i);
+				}
+			}));
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+
+		int[] next = new int[producers];
+		int received = 0;
+		while (received < producers * perProducer) {
+			int n = queue.drain(e -> {
+				int id = e / perProducer;
+				assertEquals(next[id]++, e % perProducer);
+			}, 64);
+			if (n == 0) {
+				Thread.yield();
+			}
+			received += n;
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		for (int p = 0; p < producers; p++) {
+			assertEquals(perProducer, next[p]);
+		}
+		assertTrue(queue.isEmpty());
+	}
+}
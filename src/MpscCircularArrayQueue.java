@@ -0,0 +1,430 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Unbounded lock-free queue for any number of producer threads and exactly
+ * one consumer thread, such as a logger or an actor's mailbox. Like
+ * {@code CircularArrayQueue} it never refuses an element, but instead of
+ * copying into a bigger array it grows by linking fixed size chunks together,
+ * so that producers never have to wait for a resize.
+ *
+ * A producer claims a slot with a single {@code getAndAdd} on the tail
+ * counter, finds the chunk holding that slot (linking a new one if it is the
+ * first to get there), and publishes the element with a release store into
+ * the slot. The consumer owns the head counter outright: it reads slots with
+ * acquire semantics and frees them with plain stores, advancing the head with
+ * a release store but never with an atomic read-modify-write. Chunks are
+ * dropped by the consumer once it has moved past them.
+ *
+ * Only one thread may call the removing methods ({@code poll},
+ * {@code remove}, {@code peek}, {@code element}, {@code drain},
+ * {@code clear}). {@code size}, {@code isEmpty} and the iterator may be used
+ * from any thread, but are only estimates while the queue is in use. Null
+ * elements are not permitted, and the iterator does not support removal.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue
+ * @param <T>
+ *            Type of object to be stored in the queue
+ */
+public class MpscCircularArrayQueue<T> extends PaddedRingIndices<T> {
+
+	/**
+	 * The default number of slots in each chunk when none is provided by the
+	 * user.
+	 */
+	private static final int DEFAULT_CHUNK_CAPACITY = 1024;
+
+	/**
+	 * Handle on {@code producerChunk}.
+	 */
+	private static final VarHandle PRODUCER_CHUNK;
+
+	/**
+	 * Handle on {@code Chunk.next}.
+	 */
+	private static final VarHandle NEXT;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			PRODUCER_CHUNK = lookup.findVarHandle(MpscCircularArrayQueue.class, "producerChunk", Chunk.class);
+			NEXT = lookup.findVarHandle(Chunk.class, "next", Chunk.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Fixed size block of slots. Chunk {@code n} holds the slots for counters
+	 * {@code n * chunkCapacity} up to {@code (n + 1) * chunkCapacity - 1}.
+	 */
+	private static final class Chunk {
+
+		/**
+		 * Slots of this chunk, only accessed through {@code ELEMENTS} by the
+		 * producers.
+		 */
+		final Object[] slots;
+
+		/**
+		 * Position of this chunk in the chain.
+		 */
+		final long index;
+
+		/**
+		 * The chunk after this one, linked by whichever producer first needs
+		 * it.
+		 */
+		volatile Chunk next;
+
+		/**
+		 * The chunk before this one, so that a producer which claimed a slot
+		 * before others linked further chunks can walk back to it. Cleared by
+		 * the consumer once the previous chunk has been drained.
+		 */
+		volatile Chunk prev;
+
+		Chunk(long index, int capacity, Chunk prev) {
+			this.index = index;
+			this.prev = prev;
+			slots = new Object[capacity];
+		}
+	}
+
+	/**
+	 * Number of slots in each chunk, always a power of two.
+	 */
+	private final int chunkCapacity;
+
+	/**
+	 * Mask used to map a counter onto a slot within its chunk.
+	 */
+	private final int mask;
+
+	/**
+	 * Shift used to map a counter onto the index of its chunk.
+	 */
+	private final int shift;
+
+	/**
+	 * The furthest chunk linked so far, where producers start looking for the
+	 * chunk of the slot they claimed. Only moves forward.
+	 */
+	private volatile Chunk producerChunk;
+
+	/**
+	 * The chunk holding the head slot. Only written by the consumer.
+	 */
+	private Chunk consumerChunk;
+
+	/**
+	 * Used to create a queue whose chunks hold at least the given number of
+	 * elements. Larger chunks link less often, smaller ones give memory back
+	 * to the collector sooner after a burst.
+	 *
+	 * @param chunkCapacity
+	 *            The minimum number of slots in each chunk, rounded up to the
+	 *            next power of two
+	 */
+	public MpscCircularArrayQueue(int chunkCapacity) {
+		this.chunkCapacity = ringCapacity(chunkCapacity);
+		mask = this.chunkCapacity - 1;
+		shift = Integer.numberOfTrailingZeros(this.chunkCapacity);
+		consumerChunk = new Chunk(0, this.chunkCapacity, null);
+		producerChunk = consumerChunk;
+	}
+
+	/**
+	 * Default constructor used to create a queue when the size it may expand to
+	 * is not well known beforehand
+	 */
+	public MpscCircularArrayQueue() {
+		this(DEFAULT_CHUNK_CAPACITY);
+	}
+
+	/**
+	 * Used to access the number of slots in each chunk.
+	 *
+	 * @return The capacity of each chunk
+	 */
+	public int chunkCapacity() {
+		return chunkCapacity;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(T e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		long t = (long) TAIL.getAndAdd(this, 1L);
+		Chunk chunk = producerChunk(t >>> shift);
+		ELEMENTS.setRelease(chunk.slots, (int) t & mask, e);
+		return true;
+	}
+
+	/**
+	 * Finds the chunk with the given index, walking back from the furthest
+	 * linked chunk, or linking new chunks onto the end as needed.
+	 *
+	 * @param index
+	 *            Index of the chunk to find
+	 * @return The chunk
+	 */
+	private Chunk producerChunk(long index) {
+		Chunk chunk = producerChunk;
+		while (chunk.index > index) {
+			chunk = chunk.prev;
+		}
+		while (chunk.index < index) {
+			Chunk next = chunk.next;
+			if (next == null) {
+				Chunk n = new Chunk(chunk.index + 1, chunkCapacity, chunk);
+				next = (Chunk) NEXT.compareAndExchange(chunk, (Chunk) null, n);
+				if (next == null) {
+					next = n;
+				}
+			}
+			PRODUCER_CHUNK.compareAndSet(this, chunk, next);
+			chunk = next;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Finds the chunk holding the slot for the given head counter, moving the
+	 * consumer onto the next chunk once the current one has been drained.
+	 *
+	 * @param h
+	 *            The head counter
+	 * @param wait
+	 *            Whether to wait for a producer which has claimed a slot in the
+	 *            next chunk but not yet linked it, or to give up straight away
+	 * @return The chunk holding the slot, or null if the queue is empty or the
+	 *         next chunk is not linked yet and {@code wait} is false
+	 */
+	private Chunk consumerChunk(long h, boolean wait) {
+		Chunk chunk = consumerChunk;
+		if (chunk.index == h >>> shift) {
+			return chunk;
+		}
+		Chunk next = chunk.next;
+		if (next == null) {
+			if (!wait || (long) TAIL.getAcquire(this) == h) {
+				return null;
+			}
+			while ((next = chunk.next) == null) {
+				Thread.yield();
+			}
+		}
+		next.prev = null;
+		consumerChunk = next;
+		return next;
+	}
+
+	/**
+	 * Reads the element in the head slot, if there is one.
+	 *
+	 * @param h
+	 *            The head counter
+	 * @param wait
+	 *            Whether to wait for a producer which has claimed the slot but
+	 *            not yet written it, or to give up straight away
+	 * @return The element, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	private T headElement(long h, boolean wait) {
+		Chunk chunk = consumerChunk(h, wait);
+		if (chunk == null) {
+			return null;
+		}
+		int i = (int) h & mask;
+		T o = (T) ELEMENTS.getAcquire(chunk.slots, i);
+		if (o == null && wait && (long) TAIL.getAcquire(this) != h) {
+			while ((o = (T) ELEMENTS.getAcquire(chunk.slots, i)) == null) {
+				Thread.yield();
+			}
+		}
+		return o;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#poll()
+	 */
+	@Override
+	public T poll() {
+		final long h = head;
+		T o = headElement(h, true);
+		if (o != null) {
+			consumerChunk.slots[(int) h & mask] = null;
+			HEAD.setRelease(this, h + 1);
+		}
+		return o;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#peek()
+	 */
+	@Override
+	public T peek() {
+		return headElement(head, true);
+	}
+
+	/**
+	 * Removes up to {@code limit} elements from the head of the queue, handing
+	 * each to the given consumer in order. Stops early at the first slot which
+	 * has not been published yet rather than waiting for its producer, and
+	 * only publishes the new head once for the whole batch. If the consumer
+	 * throws, the elements it accepted are still removed, and the one it threw
+	 * on is left at the head.
+	 *
+	 * @param c
+	 *            The consumer to hand each removed element to
+	 * @param limit
+	 *            The maximum number of elements to remove
+	 * @return The number of elements removed
+	 */
+	public int drain(Consumer<? super T> c, int limit) {
+		if (c == null) {
+			throw new NullPointerException();
+		}
+		final long h = head;
+		int n = 0;
+		try {
+			while (n < limit) {
+				T o = headElement(h + n, false);
+				if (o == null) {
+					break;
+				}
+				c.accept(o);
+				consumerChunk.slots[(int) (h + n) & mask] = null;
+				n++;
+			}
+		} finally {
+			if (n != 0) {
+				HEAD.setRelease(this, h + n);
+			}
+		}
+		return n;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#size()
+	 */
+	@Override
+	public int size() {
+		return ringSize(Integer.MAX_VALUE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return (long) HEAD.getAcquire(this) == (long) TAIL.getAcquire(this);
+	}
+
+	/**
+	 * Weakly consistent iterator over the elements between the head and tail
+	 * seen when it was created. Slots which have not been published yet, or
+	 * which have already been consumed, are skipped.
+	 */
+	private class It implements Iterator<T> {
+
+		/**
+		 * The chunk holding the next slot to look at.
+		 */
+		private Chunk chunk = consumerChunk;
+
+		/**
+		 * Counter of the next slot to look at.
+		 */
+		private long p = Math.max((long) HEAD.getAcquire(MpscCircularArrayQueue.this), chunk.index << shift);
+
+		/**
+		 * Counter one past the last slot to look at.
+		 */
+		private final long end = (long) TAIL.getAcquire(MpscCircularArrayQueue.this);
+
+		/**
+		 * The next element to hand out, or null if there are no more.
+		 */
+		private T next = advance();
+
+		@SuppressWarnings("unchecked")
+		private T advance() {
+			while (p < end) {
+				while (chunk != null && chunk.index < p >>> shift) {
+					chunk = chunk.next;
+				}
+				if (chunk == null) {
+					return null;
+				}
+				T o = (T) ELEMENTS.getAcquire(chunk.slots, (int) p++ & mask);
+				if (o != null) {
+					return o;
+				}
+			}
+			return null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public T next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			T o = next;
+			next = advance();
+			return o;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#iterator()
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new It();
+	}
+}
@@ -0,0 +1,94 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapRQTest {
+	OffHeapRecordQueue queue;
+
+	@Before
+	public void setup() {
+		// a long timestamp and a double price
+		queue = new OffHeapRecordQueue(16, 6);
+	}
+
+	@Test
+	public void testClaimCommitPoll() {
+		assertEquals(8, queue.capacity());
+		assertEquals(16, queue.recordSize());
+		assertNull(queue.peek());
+		assertNull(queue.poll());
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 8; i++) {
+				queue.claim().putLong(0, round * 8 + i).putDouble(8, i * 0.5);
+				queue.commit();
+			}
+			assertTrue(queue.isFull());
+			assertNull(queue.claim());
+			for (int i = 0; i < 8; i++) {
+				assertEquals(round * 8 + i, queue.peek().getLong(0));
+				OffHeapRecordQueue.Record r = queue.poll();
+				assertEquals(round * 8 + i, r.getLong(0));
+				assertEquals(i * 0.5, r.getDouble(8), 0);
+			}
+			assertTrue(queue.isEmpty());
+		}
+	}
+
+	@Test
+	public void testWrap() {
+		for (int i = 0; i < 100; i++) {
+			queue.claim().putInt(0, i);
+			queue.commit();
+			if (i % 3 != 0 || queue.size() > 5) {
+				assertEquals(queue.peek().getInt(0), queue.poll().getInt(0));
+			}
+		}
+		final int[] seen = new int[1];
+		queue.forEach(r -> seen[0]++);
+		assertEquals(queue.size(), seen[0]);
+		int last = -1;
+		while (!queue.isEmpty()) {
+			int v = queue.poll().getInt(0);
+			assertTrue(v > last);
+			last = v;
+		}
+		assertEquals(99, last);
+	}
+
+	@Test
+	public void testCopy() {
+		ByteBuffer b = ByteBuffer.allocate(32).order(ByteOrder.nativeOrder());
+		b.putLong(7).putDouble(1.5).putLong(8).putDouble(2.5).flip();
+		assertTrue(queue.offer(b));
+		assertTrue(queue.offer(b));
+		assertFalse(b.hasRemaining());
+		assertEquals(2, queue.size());
+		ByteBuffer out = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+		assertTrue(queue.poll(out));
+		assertEquals(7, out.getLong(0));
+		assertEquals(8, queue.peek().getLong(0));
+		queue.clear();
+		assertTrue(queue.isEmpty());
+		out.clear();
+		assertFalse(queue.poll(out));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testFieldOutsideRecord() {
+		queue.claim().putLong(9, 1);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCommitFull() {
+		for (int i = 0; i < 9; i++) {
+			queue.commit();
+		}
+	}
+}
@@ -0,0 +1,396 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Consumer;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Bounded circular queue of fixed size records held in a direct
+ * {@code ByteBuffer}, outside the Java heap, so that very large queues add
+ * nothing to the work of the garbage collector. The ring is split into slots
+ * of {@code recordSize} bytes, and the head, tail and size move over the
+ * slots as they do over the array of {@code CircularArrayQueue}, with the
+ * capacity rounded up to a power of two so they wrap with a mask.
+ *
+ * Records are never turned into Java objects. Instead the queue hands out a
+ * {@link Record} flyweight pointing at a slot, whose accessors read and write
+ * the fields of the record in place at byte offsets chosen by the caller. A
+ * producer calls {@code claim}, fills in the record and calls {@code commit};
+ * a consumer reads the record returned by {@code peek} and calls
+ * {@code remove}, or uses {@code poll} to do both at once. The two flyweights
+ * are created with the queue and reused on every call.
+ *
+ * The queue is not thread safe. Multi-byte fields are stored in the native
+ * byte order.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue
+ */
+public class OffHeapRecordQueue {
+
+	/**
+	 * Ring of slots holding the records.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Number of bytes in each record.
+	 */
+	private final int recordSize;
+
+	/**
+	 * Number of slots in the ring, always a power of two.
+	 */
+	private final int capacity;
+
+	/**
+	 * Mask used to wrap the head and tail onto the ring.
+	 */
+	private final int mask;
+
+	/**
+	 * Slot of the next record to be read.
+	 */
+	private int head = 0;
+
+	/**
+	 * Slot the next record will be written to.
+	 */
+	private int tail = 0;
+
+	/**
+	 * Number of records in the queue.
+	 */
+	private int size = 0;
+
+	/**
+	 * Flyweight handed to the producer.
+	 */
+	private final Record writer = new Record();
+
+	/**
+	 * Flyweight handed to the consumer.
+	 */
+	private final Record reader = new Record();
+
+	/**
+	 * Used to create a queue holding at least the given number of records.
+	 *
+	 * @param recordSize
+	 *            The number of bytes in each record
+	 * @param capacity
+	 *            The minimum number of records the queue can hold, rounded up
+	 *            to the next power of two
+	 */
+	public OffHeapRecordQueue(int recordSize, int capacity) {
+		if (recordSize <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.capacity = PaddedRingIndices.ringCapacity(capacity);
+		if ((long) this.capacity * recordSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException();
+		}
+		this.recordSize = recordSize;
+		mask = this.capacity - 1;
+		buffer = ByteBuffer.allocateDirect(this.capacity * recordSize).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Used to access the number of bytes in each record.
+	 *
+	 * @return The record size
+	 */
+	public int recordSize() {
+		return recordSize;
+	}
+
+	/**
+	 * Used to access the number of records the queue can hold.
+	 *
+	 * @return The capacity of the queue
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Used to access the number of records in the queue.
+	 *
+	 * @return The size of the queue
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Used to determine whether the queue holds no records.
+	 *
+	 * @return True if the queue is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Used to determine whether there is room for another record.
+	 *
+	 * @return True if the queue is full
+	 */
+	public boolean isFull() {
+		return size == capacity;
+	}
+
+	/**
+	 * Used to get the flyweight for the slot at the tail, so the next record
+	 * can be written into it. The record is not part of the queue until
+	 * {@code commit} is called, and claiming again before then returns the
+	 * same slot. The slot still holds whatever record was there before, so
+	 * every field should be written.
+	 *
+	 * @return The record to write, or null if the queue is full
+	 */
+	public Record claim() {
+		return size == capacity ? null : writer.at(tail);
+	}
+
+	/**
+	 * Adds the record written since the last call to {@code claim} to the
+	 * tail of the queue.
+	 *
+	 * @throws IllegalStateException
+	 *             If the queue is full
+	 */
+	public void commit() {
+		if (size == capacity) {
+			throw new IllegalStateException();
+		}
+		tail = (tail + 1) & mask;
+		size++;
+	}
+
+	/**
+	 * Copies a record from the position of the given buffer to the tail of
+	 * the queue, advancing its position by the record size.
+	 *
+	 * @param src
+	 *            The buffer holding the record
+	 * @return True if the record was added, false if the queue is full
+	 */
+	public boolean offer(ByteBuffer src) {
+		if (size == capacity) {
+			return false;
+		}
+		if (src.remaining() < recordSize) {
+			throw new IllegalArgumentException();
+		}
+		buffer.put(tail * recordSize, src, src.position(), recordSize);
+		src.position(src.position() + recordSize);
+		commit();
+		return true;
+	}
+
+	/**
+	 * Used to get the flyweight for the record at the head, without removing
+	 * it.
+	 *
+	 * @return The record at the head, or null if the queue is empty
+	 */
+	public Record peek() {
+		return size == 0 ? null : reader.at(head);
+	}
+
+	/**
+	 * Removes the record at the head, and returns the flyweight for it. The
+	 * record can still be read until the slot is claimed again, which does
+	 * not happen before the queue is next full.
+	 *
+	 * @return The record removed, or null if the queue is empty
+	 */
+	public Record poll() {
+		if (size == 0) {
+			return null;
+		}
+		Record r = reader.at(head);
+		head = (head + 1) & mask;
+		size--;
+		return r;
+	}
+
+	/**
+	 * Removes the record at the head.
+	 *
+	 * @return True if a record was removed, false if the queue was empty
+	 */
+	public boolean remove() {
+		return poll() != null;
+	}
+
+	/**
+	 * Copies the record at the head into the given buffer at its position,
+	 * advancing the position by the record size, and removes it.
+	 *
+	 * @param dst
+	 *            The buffer to copy the record into
+	 * @return True if a record was copied, false if the queue is empty
+	 */
+	public boolean poll(ByteBuffer dst) {
+		if (size == 0) {
+			return false;
+		}
+		if (dst.remaining() < recordSize) {
+			throw new IllegalArgumentException();
+		}
+		dst.put(dst.position(), buffer, head * recordSize, recordSize);
+		dst.position(dst.position() + recordSize);
+		poll();
+		return true;
+	}
+
+	/**
+	 * Passes each record from head to tail to the given action, using the
+	 * same flyweight each time, without removing any.
+	 *
+	 * @param action
+	 *            The action to perform on each record
+	 */
+	public void forEach(Consumer<? super Record> action) {
+		for (int i = 0, h = head; i < size; i++, h = (h + 1) & mask) {
+			action.accept(reader.at(h));
+		}
+	}
+
+	/**
+	 * Removes every record from the queue. The memory is kept for new
+	 * records.
+	 */
+	public void clear() {
+		head = tail = size = 0;
+	}
+
+	/**
+	 * Flyweight giving access to the fields of one record in place. Offsets
+	 * are in bytes from the start of the record, and a field must lie wholly
+	 * within it. The same instance is moved from slot to slot by the queue,
+	 * so it should not be kept past the next call to the queue.
+	 */
+	public final class Record {
+
+		/**
+		 * Offset of the record in the buffer.
+		 */
+		private int base;
+
+		private Record() {
+		}
+
+		/**
+		 * Moves the flyweight to the given slot.
+		 */
+		private Record at(int slot) {
+			base = slot * recordSize;
+			return this;
+		}
+
+		/**
+		 * Works out the offset of a field in the buffer, checking it lies
+		 * within the record.
+		 */
+		private int field(int offset, int bytes) {
+			if (offset < 0 || offset > recordSize - bytes) {
+				throw new IndexOutOfBoundsException(Integer.toString(offset));
+			}
+			return base + offset;
+		}
+
+		/**
+		 * Reads the byte field at the given offset.
+		 */
+		public byte getByte(int offset) {
+			return buffer.get(field(offset, Byte.BYTES));
+		}
+
+		/**
+		 * Reads the short field at the given offset.
+		 */
+		public short getShort(int offset) {
+			return buffer.getShort(field(offset, Short.BYTES));
+		}
+
+		/**
+		 * Reads the int field at the given offset.
+		 */
+		public int getInt(int offset) {
+			return buffer.getInt(field(offset, Integer.BYTES));
+		}
+
+		/**
+		 * Reads the long field at the given offset.
+		 */
+		public long getLong(int offset) {
+			return buffer.getLong(field(offset, Long.BYTES));
+		}
+
+		/**
+		 * Reads the double field at the given offset.
+		 */
+		public double getDouble(int offset) {
+			return buffer.getDouble(field(offset, Double.BYTES));
+		}
+
+		/**
+		 * Writes the byte field at the given offset.
+		 *
+		 * @return This record, so writes can be chained
+		 */
+		public Record putByte(int offset, byte value) {
+			buffer.put(field(offset, Byte.BYTES), value);
+			return this;
+		}
+
+		/**
+		 * Writes the short field at the given offset.
+		 *
+		 * @return This record, so writes can be chained
+		 */
+		public Record putShort(int offset, short value) {
+			buffer.putShort(field(offset, Short.BYTES), value);
+			return this;
+		}
+
+		/**
+		 * Writes the int field at the given offset.
+		 *
+		 * @return This record, so writes can be chained
+		 */
+		public Record putInt(int offset, int value) {
+			buffer.putInt(field(offset, Integer.BYTES), value);
+			return this;
+		}
+
+		/**
+		 * Writes the long field at the given offset.
+		 *
+		 * @return This record, so writes can be chained
+		 */
+		public Record putLong(int offset, long value) {
+			buffer.putLong(field(offset, Long.BYTES), value);
+			return this;
+		}
+
+		/**
+		 * Writes the double field at the given offset.
+		 *
+		 * @return This record, so writes can be chained
+		 */
+		public Record putDouble(int offset, double value) {
+			buffer.putDouble(field(offset, Double.BYTES), value);
+			return this;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * What a bounded queue does with an element added while it is full. Whichever
+ * policy is used, the queue counts every element it drops or refuses, so a
+ * buffer in front of a slow consumer can report how much it lost.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue#bounded(int, OverflowPolicy)
+ * @see CircularArrayBlockingQueue#CircularArrayBlockingQueue(int, boolean,
+ *      OverflowPolicy)
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Refuse the new element: {@code offer} returns false and {@code add}
+	 * throws {@code IllegalStateException}, as the {@code Queue} interface
+	 * describes for capacity restricted queues.
+	 */
+	REJECT,
+
+	/**
+	 * Remove the element at the head to make room, so the queue behaves as a
+	 * ring buffer holding the most recent elements.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Discard the new element and leave the queue as it is. {@code offer} and
+	 * {@code add} return false but never throw.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Wait until there is room. Only supported by
+	 * {@code CircularArrayBlockingQueue}, where {@code offer} and {@code add}
+	 * then wait as {@code put} does.
+	 */
+	BLOCK
+}
@@ -0,0 +1,149 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+
+/*
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ */
+
+/**
+ * Padding placed before the tail counter. Fields of a superclass are laid out
+ * before those of its subclasses, so the chain of classes below keeps the
+ * head and tail counters on different cache lines from each other and from
+ * whatever the object shares memory with.
+ */
+abstract class RingTailPad<T> extends AbstractQueue<T> {
+	long p00, p01, p02, p03, p04, p05, p06, p07;
+	long p08, p09, p0a, p0b, p0c, p0d, p0e, p0f;
+}
+
+/**
+ * Holds the tail counter, which is written by producers.
+ */
+abstract class RingTail<T> extends RingTailPad<T> {
+
+	/**
+	 * Total number of slots ever claimed by producers. Only accessed through
+	 * {@code PaddedRingIndices.TAIL}.
+	 */
+	long tail;
+
+	/**
+	 * Producer side cache of the head counter, used by single producer
+	 * variants to avoid reading the consumer's cache line on every offer.
+	 */
+	long headCache;
+}
+
+/**
+ * Padding between the tail and head counters.
+ */
+abstract class RingHeadPad<T> extends RingTail<T> {
+	long p10, p11, p12, p13, p14, p15, p16, p17;
+	long p18, p19, p1a, p1b, p1c, p1d, p1e, p1f;
+}
+
+/**
+ * Holds the head counter, which is written by consumers.
+ */
+abstract class RingHead<T> extends RingHeadPad<T> {
+
+	/**
+	 * Total number of slots ever released by consumers. Only accessed through
+	 * {@code PaddedRingIndices.HEAD}.
+	 */
+	long head;
+
+	/**
+	 * Consumer side cache of the tail counter, used by single consumer
+	 * variants to avoid reading the producer's cache line on every poll.
+	 */
+	long tailCache;
+}
+
+/**
+ * Base class of the concurrent ring queues. Provides a head and a tail
+ * counter, each padded onto its own cache line so that producers and
+ * consumers do not falsely share, along with the {@code VarHandle}s used to
+ * access them with the memory ordering each queue needs.
+ *
+ * Both counters only ever increase, and are mapped onto the ring with the
+ * queue's mask, so the number of elements is always {@code tail - head}.
+ *
+ * @author David Brown
+ * @param <T>
+ *            Type of object to be stored in the queue
+ */
+abstract class PaddedRingIndices<T> extends RingHead<T> {
+	long p20, p21, p22, p23, p24, p25, p26, p27;
+	long p28, p29, p2a, p2b, p2c, p2d, p2e, p2f;
+
+	/**
+	 * Handle on the head counter.
+	 */
+	static final VarHandle HEAD;
+
+	/**
+	 * Handle on the tail counter.
+	 */
+	static final VarHandle TAIL;
+
+	/**
+	 * Handle on the elements of an {@code Object[]}, for slots which are read
+	 * or written by more than one thread.
+	 */
+	static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			HEAD = lookup.findVarHandle(RingHead.class, "head", long.class);
+			TAIL = lookup.findVarHandle(RingTail.class, "tail", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Rounds the requested capacity up to the next power of two, so that
+	 * counters can be mapped onto the ring with a mask instead of a division.
+	 *
+	 * @param capacity
+	 *            The requested capacity
+	 * @return The smallest power of two no smaller than {@code capacity}
+	 */
+	static int ringCapacity(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException();
+		}
+		return capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+	}
+
+	/**
+	 * Reads both counters until a consistent pair is seen, and works out the
+	 * number of elements between them.
+	 *
+	 * @param capacity
+	 *            Upper bound on the returned size
+	 * @return The number of elements in the queue at some point during the
+	 *         call
+	 */
+	final int ringSize(long capacity) {
+		long after = (long) HEAD.getAcquire(this);
+		while (true) {
+			long before = after;
+			long t = (long) TAIL.getAcquire(this);
+			after = (long) HEAD.getAcquire(this);
+			if (before == after) {
+				long size = t - after;
+				return (int) (size < 0 ? 0 : size > capacity ? capacity : size);
+			}
+		}
+	}
+}
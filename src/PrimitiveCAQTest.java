@@ -0,0 +1,65 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.PrimitiveIterator;
+
+import org.junit.Test;
+
+public class PrimitiveCAQTest {
+
+	@Test
+	public void testLongWraparound() {
+		LongCircularArrayQueue queue = new LongCircularArrayQueue(4, -1L);
+		for (long i = 0; i < 4; i++) {
+			queue.addLong(i << 40);
+		}
+		assertEquals(0L, queue.removeLong());
+		assertEquals(1L << 40, queue.pollLong());
+		queue.addLong(4L << 40);
+		queue.addLong(5L << 40);
+		assertEquals(4, queue.capacity());
+		queue.addLong(6L << 40);
+		assertEquals(8, queue.capacity());
+
+		assertArrayEquals(new long[] { 2L << 40, 3L << 40, 4L << 40, 5L << 40, 6L << 40 }, queue.toLongArray());
+		assertTrue(queue.contains(5L << 40));
+		assertFalse(queue.contains(5L));
+
+		PrimitiveIterator.OfLong it = queue.iterator();
+		long expected = 2;
+		while (it.hasNext()) {
+			assertEquals(expected++ << 40, it.nextLong());
+		}
+		assertEquals(7, expected);
+
+		long[] dst = new long[5];
+		assertEquals(5, queue.pollInto(dst, 0, 5));
+		assertEquals(6L << 40, dst[4]);
+		assertEquals(-1L, queue.pollLong());
+	}
+
+	@Test
+	public void testDouble() {
+		DoubleCircularArrayQueue queue = new DoubleCircularArrayQueue(0);
+		queue.addAll(new double[] { 0.5, Double.NaN, -0.0 });
+		assertEquals(3, queue.size());
+		assertTrue(queue.contains(Double.NaN));
+		assertTrue(queue.contains(-0.0));
+		assertFalse(queue.contains(0.0));
+
+		PrimitiveIterator.OfDouble it = queue.iterator();
+		assertEquals(0.5, it.nextDouble(), 0);
+		it.remove();
+		assertTrue(Double.isNaN(it.nextDouble()));
+		assertEquals(2, queue.size());
+
+		DoubleCircularArrayQueue clone = queue.clone();
+		assertTrue(clone.equals(queue));
+		assertEquals(queue.hashCode(), clone.hashCode());
+		assertTrue(Double.isNaN(clone.pollDouble()));
+		assertFalse(clone.equals(queue));
+		assertEquals(0.0, new DoubleCircularArrayQueue().peekDouble(), 0);
+	}
+}
@@ -0,0 +1,138 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentedCAQTest {
+	SegmentedCircularArrayQueue<Integer> queue;
+
+	@Before
+	public void setup() {
+		queue = new SegmentedCircularArrayQueue<Integer>(4, 2);
+	}
+
+	@Test
+	public void testGrowsAcrossChunks() {
+		assertEquals(4, queue.chunkCapacity());
+		for (int i = 0; i < 100; i++) {
+			assertTrue(queue.add(i));
+		}
+		assertEquals(100, queue.size());
+		Iterator<Integer> it = queue.iterator();
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (int) it.next());
+		}
+		assertFalse(it.hasNext());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (int) queue.peek());
+			assertEquals(i, (int) queue.remove());
+		}
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		assertNull(queue.peek());
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testRemoveEmpty() {
+		queue.remove();
+	}
+
+	@Test
+	public void testRecyclesChunks() {
+		for (int i = 0; i < 40; i++) {
+			queue.add(i);
+		}
+		assertEquals(0, queue.spareChunks());
+		for (int i = 0; i < 40; i++) {
+			queue.remove();
+		}
+		assertEquals(2, queue.spareChunks());
+		for (int i = 0; i < 12; i++) {
+			queue.add(i);
+		}
+		assertEquals(0, queue.spareChunks());
+		queue.clear();
+		assertTrue(queue.isEmpty());
+		assertEquals(2, queue.spareChunks());
+		queue.add(1);
+		assertEquals(1, (int) queue.remove());
+	}
+
+	@Test
+	public void testIteratorRemove() {
+		for (int i = 0; i < 10; i++) {
+			queue.add(i);
+		}
+		queue.remove();
+		queue.remove();
+		Iterator<Integer> it = queue.iterator();
+		while (it.hasNext()) {
+			if (it.next() % 3 == 0) {
+				it.remove();
+			}
+		}
+		assertArrayEquals(new Object[] { 2, 4, 5, 7, 8 }, queue.toArray());
+		it = queue.iterator();
+		while (it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		assertTrue(queue.isEmpty());
+		queue.add(11);
+		assertArrayEquals(new Object[] { 11 }, queue.toArray());
+	}
+
+	@Test
+	public void testRandomOperations() {
+		ArrayDeque<Integer> test = new ArrayDeque<Integer>();
+		Random r = new Random(8);
+		for (int n = 0; n < 20000; n++) {
+			int op = r.nextInt(10);
+			if (op < 5) {
+				int v = r.nextInt();
+				queue.add(v);
+				test.add(v);
+			} else if (op < 9) {
+				assertEquals(test.poll(), queue.poll());
+			} else if (!test.isEmpty()) {
+				Integer v = test.toArray(new Integer[0])[r.nextInt(test.size())];
+				assertEquals(test.remove(v), queue.remove(v));
+			}
+			assertEquals(test.size(), queue.size());
+			assertEquals(test.peek(), queue.peek());
+		}
+		assertArrayEquals(test.toArray(), queue.toArray());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSerialization() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			queue.add(i);
+		}
+		queue.add(null);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(queue);
+		}
+		SegmentedCircularArrayQueue<Integer> copy;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			copy = (SegmentedCircularArrayQueue<Integer>) in.readObject();
+		}
+		assertEquals(4, copy.chunkCapacity());
+		assertArrayEquals(queue.toArray(), copy.toArray());
+	}
+}
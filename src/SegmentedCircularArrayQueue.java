@@ -0,0 +1,510 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractQueue;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Unbounded queue made of fixed size chunks linked together, for queues which
+ * grow too large to resize comfortably. Where {@code CircularArrayQueue}
+ * doubles its array and copies every element across when it fills up, this
+ * queue links one more chunk onto the tail, so {@code add} and {@code remove}
+ * are constant time in the worst case rather than just amortized, and growing
+ * never needs memory for both the old and new arrays at once.
+ *
+ * Chunks drained by {@code remove} are kept on a small free list and reused by
+ * {@code add}, so a queue which cycles through roughly the same number of
+ * elements stops allocating once it has warmed up. Beyond the free list, empty
+ * chunks are left for the garbage collector, so memory is given back after a
+ * burst.
+ *
+ * Like {@code CircularArrayQueue}, null elements are permitted and the
+ * iterator is fail-fast.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue
+ * @param <T>
+ *            Type of object to be stored in the queue
+ */
+public class SegmentedCircularArrayQueue<T> extends AbstractQueue<T> implements Serializable {
+
+	/**
+	 * Generated serial ID for serialization of this collection.
+	 */
+	private static final long serialVersionUID = -4602816532147920514L;
+
+	/**
+	 * The default number of slots in each chunk when none is provided by the
+	 * user.
+	 */
+	private static final int DEFAULT_CHUNK_CAPACITY = 1024;
+
+	/**
+	 * The default number of drained chunks kept for reuse.
+	 */
+	private static final int DEFAULT_MAX_SPARE_CHUNKS = 2;
+
+	/**
+	 * Fixed size block of slots, linked to its neighbours in both directions.
+	 */
+	private static final class Chunk {
+		final Object[] slots;
+		Chunk next;
+		Chunk prev;
+
+		Chunk(int capacity) {
+			slots = new Object[capacity];
+		}
+	}
+
+	/**
+	 * Number of slots in each chunk.
+	 */
+	private final int chunkCapacity;
+
+	/**
+	 * Maximum number of drained chunks kept on the free list.
+	 */
+	private final int maxSpareChunks;
+
+	/**
+	 * The chunk holding the head element.
+	 */
+	private transient Chunk headChunk;
+
+	/**
+	 * The chunk holding the tail element. Never empty unless it is also the
+	 * head chunk.
+	 */
+	private transient Chunk tailChunk;
+
+	/**
+	 * Index within the head chunk of the next element to be removed.
+	 */
+	private transient int head;
+
+	/**
+	 * Index within the tail chunk of the slot the next element is added to.
+	 * Equal to the chunk capacity when the tail chunk is full.
+	 */
+	private transient int tail;
+
+	/**
+	 * Current size or number of elements in the queue.
+	 */
+	private transient int size;
+
+	/**
+	 * Number of modifications made to the elements in this queue. For use when
+	 * checking for {@code ConcurrentModificationException}s to be thrown
+	 */
+	private transient int mods;
+
+	/**
+	 * Free list of drained chunks, linked through {@code next}.
+	 */
+	private transient Chunk spare;
+
+	/**
+	 * Number of chunks on the free list.
+	 */
+	private transient int spareCount;
+
+	/**
+	 * Used to create a queue with the given chunk size and free list size.
+	 *
+	 * @param chunkCapacity
+	 *            Number of slots in each chunk. Larger chunks link less often,
+	 *            smaller ones waste less memory on a partly filled chunk
+	 * @param maxSpareChunks
+	 *            Maximum number of drained chunks kept for reuse
+	 */
+	public SegmentedCircularArrayQueue(int chunkCapacity, int maxSpareChunks) {
+		if (chunkCapacity <= 0 || maxSpareChunks < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.chunkCapacity = chunkCapacity;
+		this.maxSpareChunks = maxSpareChunks;
+		init();
+	}
+
+	/**
+	 * Used to create a queue with the given chunk size.
+	 *
+	 * @param chunkCapacity
+	 *            Number of slots in each chunk
+	 */
+	public SegmentedCircularArrayQueue(int chunkCapacity) {
+		this(chunkCapacity, DEFAULT_MAX_SPARE_CHUNKS);
+	}
+
+	/**
+	 * Default constructor used to create a queue when the size it may expand to
+	 * is not well known beforehand
+	 */
+	public SegmentedCircularArrayQueue() {
+		this(DEFAULT_CHUNK_CAPACITY, DEFAULT_MAX_SPARE_CHUNKS);
+	}
+
+	/**
+	 * Sets up an empty queue with a single chunk.
+	 */
+	private void init() {
+		headChunk = tailChunk = new Chunk(chunkCapacity);
+		head = tail = size = 0;
+	}
+
+	/**
+	 * Used to access the number of slots in each chunk.
+	 *
+	 * @return The capacity of each chunk
+	 */
+	public int chunkCapacity() {
+		return chunkCapacity;
+	}
+
+	/**
+	 * Used to access the number of drained chunks currently kept for reuse.
+	 *
+	 * @return The number of chunks on the free list
+	 */
+	public int spareChunks() {
+		return spareCount;
+	}
+
+	/**
+	 * Takes a chunk from the free list, or allocates one if it is empty.
+	 */
+	private Chunk obtainChunk() {
+		Chunk c = spare;
+		if (c == null) {
+			return new Chunk(chunkCapacity);
+		}
+		spare = c.next;
+		spareCount--;
+		c.next = null;
+		return c;
+	}
+
+	/**
+	 * Puts an unlinked, already cleared chunk onto the free list if there is
+	 * room for it.
+	 */
+	private void recycle(Chunk c) {
+		c.prev = null;
+		if (spareCount < maxSpareChunks) {
+			c.next = spare;
+			spare = c;
+			spareCount++;
+		} else {
+			c.next = null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#size()
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#add(java.lang.Object)
+	 */
+	@Override
+	public boolean add(T e) {
+		if (tail == chunkCapacity) {
+			Chunk c = obtainChunk();
+			c.prev = tailChunk;
+			tailChunk.next = c;
+			tailChunk = c;
+			tail = 0;
+		}
+		mods++;
+		tailChunk.slots[tail++] = e;
+		size++;
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(T e) {
+		return add(e);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#remove()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public T remove() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		mods++;
+		T o = (T) headChunk.slots[head];
+		headChunk.slots[head++] = null;
+		size--;
+		if (size == 0) {
+			head = tail = 0;
+		} else if (head == chunkCapacity) {
+			Chunk old = headChunk;
+			headChunk = old.next;
+			headChunk.prev = null;
+			recycle(old);
+			head = 0;
+		}
+		return o;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#poll()
+	 */
+	@Override
+	public T poll() {
+		return size == 0 ? null : remove();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#peek()
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public T peek() {
+		return size == 0 ? null : (T) headChunk.slots[head];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#clear()
+	 */
+	@Override
+	public void clear() {
+		Chunk c = headChunk;
+		int from = head;
+		int remaining = size;
+		while (remaining > 0) {
+			int n = Math.min(remaining, chunkCapacity - from);
+			for (int i = from; i < from + n; i++) {
+				c.slots[i] = null;
+			}
+			remaining -= n;
+			from = 0;
+			Chunk next = c.next;
+			if (c != tailChunk && c != headChunk) {
+				recycle(c);
+			}
+			c = next;
+		}
+		if (tailChunk != headChunk) {
+			recycle(tailChunk);
+		}
+		headChunk.next = null;
+		tailChunk = headChunk;
+		head = tail = size = 0;
+		mods++;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#toArray()
+	 */
+	@Override
+	public Object[] toArray() {
+		Object[] a = new Object[size];
+		Chunk c = headChunk;
+		int from = head;
+		for (int copied = 0; copied < size; c = c.next, from = 0) {
+			int n = Math.min(size - copied, chunkCapacity - from);
+			System.arraycopy(c.slots, from, a, copied, n);
+			copied += n;
+		}
+		return a;
+	}
+
+	/**
+	 * Fail-fast iterator, walking the chunks from head to tail. Removing an
+	 * element through the iterator shifts the elements after it back by one
+	 * slot.
+	 */
+	private class It implements Iterator<T> {
+
+		/**
+		 * Chunk holding the next element.
+		 */
+		private Chunk c = headChunk;
+
+		/**
+		 * Index within {@code c} of the next element.
+		 */
+		private int i = head;
+
+		/**
+		 * Number of elements not yet handed out.
+		 */
+		private int remaining = size;
+
+		/**
+		 * Chunk and index of the element last handed out, or null if there is
+		 * none to remove.
+		 */
+		private Chunk lastChunk;
+		private int lastIndex;
+
+		/**
+		 * Expected modification count.
+		 */
+		private int xpm = mods;
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if (remaining <= 0) {
+				throw new NoSuchElementException();
+			}
+			if (xpm != mods) {
+				throw new ConcurrentModificationException();
+			}
+			lastChunk = c;
+			lastIndex = i;
+			T o = (T) c.slots[i++];
+			remaining--;
+			if (i == chunkCapacity && remaining > 0) {
+				c = c.next;
+				i = 0;
+			}
+			return o;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#remove()
+		 */
+		@Override
+		public void remove() {
+			if (lastChunk == null) {
+				throw new IllegalStateException();
+			}
+			if (xpm != mods) {
+				throw new ConcurrentModificationException();
+			}
+			Chunk dc = lastChunk;
+			int di = lastIndex;
+			for (int n = 0; n < remaining; n++) {
+				Chunk sc = dc;
+				int si = di + 1;
+				if (si == chunkCapacity) {
+					sc = dc.next;
+					si = 0;
+				}
+				dc.slots[di] = sc.slots[si];
+				dc = sc;
+				di = si;
+			}
+			dc.slots[di] = null;
+			size--;
+			if (size == 0) {
+				head = tail = 0;
+			} else if (--tail == 0 && tailChunk != headChunk) {
+				Chunk old = tailChunk;
+				tailChunk = old.prev;
+				tailChunk.next = null;
+				recycle(old);
+				tail = chunkCapacity;
+			}
+			c = lastChunk;
+			i = lastIndex;
+			lastChunk = null;
+			mods++;
+			xpm = mods;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#iterator()
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new It();
+	}
+
+	/**
+	 * Writes the number of elements, followed by the elements in order.
+	 */
+	private void writeObject(ObjectOutputStream s) throws IOException {
+		s.defaultWriteObject();
+		s.writeInt(size);
+		for (T e : this) {
+			s.writeObject(e);
+		}
+	}
+
+	/**
+	 * Rebuilds the chunks from the elements written by {@code writeObject}.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
+		s.defaultReadObject();
+		init();
+		int n = s.readInt();
+		for (int k = 0; k < n; k++) {
+			add((T) s.readObject());
+		}
+	}
+}
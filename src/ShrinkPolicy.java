@@ -0,0 +1,123 @@
+import java.io.Serializable;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Decides when a {@code CircularArrayQueue} gives memory back after elements
+ * have been removed, and how far it shrinks. The queue asks for a threshold
+ * each time its capacity changes, so the check on each removal is a single
+ * comparison of the size against that threshold.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue#setShrinkPolicy(ShrinkPolicy)
+ */
+public interface ShrinkPolicy extends Serializable {
+
+	/**
+	 * Used to find the size below which a queue of the given capacity should
+	 * shrink.
+	 *
+	 * @param capacity
+	 *            The current capacity of the queue
+	 * @return The size at which to shrink once the queue drops below it, or 0
+	 *         to never shrink at this capacity
+	 */
+	int threshold(int capacity);
+
+	/**
+	 * Used to find the capacity to shrink to once the size has dropped below
+	 * the threshold. The queue never shrinks below its size, whatever is
+	 * returned.
+	 *
+	 * @param size
+	 *            The current size of the queue
+	 * @param capacity
+	 *            The current capacity of the queue
+	 * @return The new capacity
+	 */
+	int shrinkTo(int size, int capacity);
+
+	/**
+	 * Used to get the policy which never shrinks, the default for new queues.
+	 *
+	 * @return The policy
+	 */
+	static ShrinkPolicy never() {
+		return Never.INSTANCE;
+	}
+
+	/**
+	 * Used to get a policy which halves the capacity once the size drops below
+	 * a quarter of it. The gap between the quarter and the half leaves room
+	 * for the queue to grow again before it has to resize, so a size hovering
+	 * around the threshold does not resize back and forth.
+	 *
+	 * @param minCapacity
+	 *            The capacity below which the queue is never shrunk
+	 * @return The policy
+	 */
+	static ShrinkPolicy halving(int minCapacity) {
+		return new Halving(minCapacity);
+	}
+
+	/**
+	 * Policy which never shrinks.
+	 */
+	final class Never implements ShrinkPolicy {
+
+		private static final long serialVersionUID = 6094783720318540532L;
+
+		private static final Never INSTANCE = new Never();
+
+		private Never() {
+		}
+
+		@Override
+		public int threshold(int capacity) {
+			return 0;
+		}
+
+		@Override
+		public int shrinkTo(int size, int capacity) {
+			return capacity;
+		}
+
+		private Object readResolve() {
+			return INSTANCE;
+		}
+	}
+
+	/**
+	 * Policy which halves the capacity once the size drops below a quarter of
+	 * it.
+	 */
+	final class Halving implements ShrinkPolicy {
+
+		private static final long serialVersionUID = -1489201572651306647L;
+
+		private final int minCapacity;
+
+		private Halving(int minCapacity) {
+			if (minCapacity < 0) {
+				throw new IllegalArgumentException();
+			}
+			this.minCapacity = minCapacity;
+		}
+
+		@Override
+		public int threshold(int capacity) {
+			return capacity > minCapacity ? capacity >>> 2 : 0;
+		}
+
+		@Override
+		public int shrinkTo(int size, int capacity) {
+			return Math.max(minCapacity, capacity >>> 1);
+		}
+	}
+}
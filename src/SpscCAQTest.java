@@ -0,0 +1,99 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpscCAQTest {
+	SpscCircularArrayQueue<Integer> queue;
+
+	@Before
+	public void setup() {
+		queue = new SpscCircularArrayQueue<Integer>(10);
+	}
+
+	@Test
+	public void testCapacity() {
+		assertEquals(16, queue.capacity());
+		assertEquals(1, new SpscCircularArrayQueue<Integer>(1).capacity());
+		assertEquals(1024, new SpscCircularArrayQueue<Integer>(1024).capacity());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructorArguments() {
+		new SpscCircularArrayQueue<Integer>(0);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullElement() {
+		queue.offer(null);
+	}
+
+	@Test
+	public void testOfferUntilFull() {
+		for (int i = 0; i < 16; i++) {
+			assertTrue(queue.offer(i));
+		}
+		assertFalse(queue.offer(16));
+		assertEquals(16, queue.size());
+		assertEquals(0, (int) queue.poll());
+		assertTrue(queue.offer(16));
+		assertFalse(queue.offer(17));
+	}
+
+	@Test
+	public void testWraparound() {
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(queue.offer(i));
+			assertTrue(queue.offer(-i));
+			assertEquals(i, (int) queue.peek());
+			assertEquals(i, (int) queue.poll());
+			assertEquals(-i, (int) queue.poll());
+			assertTrue(queue.isEmpty());
+		}
+		assertNull(queue.poll());
+		assertNull(queue.peek());
+	}
+
+	@Test
+	public void testIterator() {
+		for (int i = 0; i < 20; i++) {
+			queue.offer(i);
+			if (i % 2 == 0) {
+				queue.poll();
+			}
+		}
+		Iterator<Integer> it = queue.iterator();
+		for (int i = 10; i < 20; i++) {
+			assertTrue(it.hasNext());
+			assertEquals(i, (int) it.next());
+		}
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testTwoThreads() throws InterruptedException {
+		final int count = 1000000;
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < count; i++) {
+				while (!queue.offer(i)) {
+					Thread.yield();
+				}
+			}
+		});
+		producer.start();
+		for (int i = 0; i < count; i++) {
+			Integer e;
+			while ((e = queue.poll()) == null) {
+				Thread.yield();
+			}
+			assertEquals(i, (int) e);
+		}
+		producer.join();
+		assertTrue(queue.isEmpty());
+	}
+}
@@ -0,0 +1,226 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Lock-free bounded circular array queue for exactly one producer thread and
+ * exactly one consumer thread. Uses the same head and tail layout as
+ * {@code CircularArrayQueue}, but with a fixed capacity rounded up to a power
+ * of two, so that the queue never has to be resized underneath the other
+ * thread.
+ *
+ * The producer publishes an element by writing it into the ring and then
+ * storing the tail with release semantics; the consumer reads the tail with
+ * acquire semantics before reading the element, and frees the slot by
+ * storing the head with release semantics. Neither side ever takes a lock or
+ * performs an atomic read-modify-write.
+ *
+ * Only one thread may call the adding methods ({@code offer}, {@code add},
+ * {@code addAll}) and only one thread may call the removing methods
+ * ({@code poll}, {@code remove}, {@code peek}, {@code element},
+ * {@code clear}). {@code size}, {@code isEmpty} and the iterator may be used
+ * from any thread, but are only estimates while the queue is in use. Null
+ * elements are not permitted, and the iterator does not support removal.
+ *
+ * @author David Brown
+ * @see CircularArrayQueue
+ * @param <T>
+ *            Type of object to be stored in the queue
+ */
+public class SpscCircularArrayQueue<T> extends PaddedRingIndices<T> {
+
+	/**
+	 * Underlying array storing elements which have been added to the queue.
+	 */
+	private final T[] elements;
+
+	/**
+	 * Capacity of the queue, always a power of two.
+	 */
+	private final int capacity;
+
+	/**
+	 * Mask used to map the head and tail counters onto the ring.
+	 */
+	private final int mask;
+
+	/**
+	 * Used to create a queue which can hold at least the given number of
+	 * elements.
+	 *
+	 * @param capacity
+	 *            The minimum capacity of the queue, rounded up to the next
+	 *            power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public SpscCircularArrayQueue(int capacity) {
+		this.capacity = ringCapacity(capacity);
+		mask = this.capacity - 1;
+		elements = (T[]) new Object[this.capacity];
+	}
+
+	/**
+	 * Used to access the fixed capacity of the queue.
+	 *
+	 * @return The capacity of the queue
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	@Override
+	public boolean offer(T e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		final long t = tail;
+		if (t - headCache >= capacity) {
+			headCache = (long) HEAD.getAcquire(this);
+			if (t - headCache >= capacity) {
+				return false;
+			}
+		}
+		elements[(int) t & mask] = e;
+		TAIL.setRelease(this, t + 1);
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#poll()
+	 */
+	@Override
+	public T poll() {
+		final long h = head;
+		if (h >= tailCache) {
+			tailCache = (long) TAIL.getAcquire(this);
+			if (h >= tailCache) {
+				return null;
+			}
+		}
+		int i = (int) h & mask;
+		T o = elements[i];
+		elements[i] = null;
+		HEAD.setRelease(this, h + 1);
+		return o;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#peek()
+	 */
+	@Override
+	public T peek() {
+		final long h = head;
+		if (h >= tailCache) {
+			tailCache = (long) TAIL.getAcquire(this);
+			if (h >= tailCache) {
+				return null;
+			}
+		}
+		return elements[(int) h & mask];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#size()
+	 */
+	@Override
+	public int size() {
+		return ringSize(capacity);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return (long) HEAD.getAcquire(this) == (long) TAIL.getAcquire(this);
+	}
+
+	/**
+	 * Weakly consistent iterator over the elements between the head and tail
+	 * seen when it was created. Elements polled by the consumer while
+	 * iterating are skipped.
+	 */
+	private class It implements Iterator<T> {
+
+		/**
+		 * Counter of the next slot to look at.
+		 */
+		private long p = (long) HEAD.getAcquire(SpscCircularArrayQueue.this);
+
+		/**
+		 * Counter one past the last slot to look at.
+		 */
+		private final long end = (long) TAIL.getAcquire(SpscCircularArrayQueue.this);
+
+		/**
+		 * The next element to hand out, or null if there are no more.
+		 */
+		private T next = advance();
+
+		@SuppressWarnings("unchecked")
+		private T advance() {
+			while (p < end) {
+				T o = (T) ELEMENTS.getAcquire(elements, (int) p++ & mask);
+				if (o != null && p > (long) HEAD.getAcquire(SpscCircularArrayQueue.this)) {
+					return o;
+				}
+			}
+			return null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public T next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			T o = next;
+			next = advance();
+			return o;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#iterator()
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new It();
+	}
+}
@@ -0,0 +1,113 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Copyright (C) 2015 David Brown. Permission is granted to copy, distribute
+ * and/or modify this document under the terms of the GNU Free Documentation
+ * License, Version 1.3 or any later version published by the Free Software
+ * Foundation; with no Invariant Sections, no Front-Cover Texts, and no
+ * Back-Cover Texts. A copy of the license is included in the section entitled
+ * "GNU Free Documentation License".
+ *
+ * Decides when a {@code JournaledQueue} forces the operations it has logged
+ * to the disk. The queue asks after each call which changes it, so a call
+ * adding many elements is synced at most once, however many operations it
+ * logged. Whatever the policy, the operations of each call are written to
+ * the journal before it returns, so operations which have not yet been synced
+ * survive the process dying, but may be lost if the machine fails.
+ *
+ * @author David Brown
+ * @see JournaledQueue
+ */
+public interface SyncPolicy {
+
+	/**
+	 * Used to find whether the queue should sync now.
+	 *
+	 * @param pendingOps
+	 *            The number of operations logged since the last sync, always
+	 *            at least one
+	 * @param lastSyncNanos
+	 *            The value of {@code System.nanoTime()} at the last sync
+	 * @return True to sync now
+	 */
+	boolean shouldSync(int pendingOps, long lastSyncNanos);
+
+	/**
+	 * Used to get the policy which syncs after every call that changes the
+	 * queue, so nothing acknowledged is ever lost.
+	 *
+	 * @return The policy
+	 */
+	static SyncPolicy everyOp() {
+		return EveryOps.EVERY_OP;
+	}
+
+	/**
+	 * Used to get a policy which syncs once a number of operations have been
+	 * logged.
+	 *
+	 * @param ops
+	 *            The number of operations to log between syncs
+	 * @return The policy
+	 */
+	static SyncPolicy everyOps(int ops) {
+		return new EveryOps(ops);
+	}
+
+	/**
+	 * Used to get a policy which syncs when an operation is logged at least
+	 * the given time after the last sync. The queue has no thread of its own,
+	 * so operations logged just before the queue goes idle stay unsynced until
+	 * the next operation, {@code sync} or {@code close}.
+	 *
+	 * @param millis
+	 *            The number of milliseconds between syncs
+	 * @return The policy
+	 */
+	static SyncPolicy everyMillis(long millis) {
+		return new EveryMillis(millis);
+	}
+
+	/**
+	 * Policy which syncs every so many operations.
+	 */
+	final class EveryOps implements SyncPolicy {
+
+		private static final EveryOps EVERY_OP = new EveryOps(1);
+
+		private final int ops;
+
+		private EveryOps(int ops) {
+			if (ops <= 0) {
+				throw new IllegalArgumentException();
+			}
+			this.ops = ops;
+		}
+
+		@Override
+		public boolean shouldSync(int pendingOps, long lastSyncNanos) {
+			return pendingOps >= ops;
+		}
+	}
+
+	/**
+	 * Policy which syncs every so many milliseconds.
+	 */
+	final class EveryMillis implements SyncPolicy {
+
+		private final long nanos;
+
+		private EveryMillis(long millis) {
+			if (millis < 0) {
+				throw new IllegalArgumentException();
+			}
+			nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		}
+
+		@Override
+		public boolean shouldSync(int pendingOps, long lastSyncNanos) {
+			return System.nanoTime() - lastSyncNanos >= nanos;
+		}
+	}
+}
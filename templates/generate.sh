@@ -0,0 +1,26 @@
+#!/bin/sh
+#
+# Regenerates the primitive specializations of CircularArrayQueue from
+# PrimitiveCircularArrayQueue.java.template, so that the head, tail, size and
+# resize logic of every specialization stays identical. Run after editing the
+# template and commit the regenerated sources alongside it.
+#
+# Usage: templates/generate.sh
+
+dir=$(dirname "$0")
+template="$dir/PrimitiveCircularArrayQueue.java.template"
+
+# gen <primitive> <Name> <Boxed> <serialVersionUID> <body of same(a, b)>
+gen() {
+	sed -e "s/\${type}/$1/g" \
+		-e "s/\${Type}/$2/g" \
+		-e "s/\${Boxed}/$3/g" \
+		-e "s/\${serial}/$4/g" \
+		-e "s/\${sameBody}/$5/g" \
+		"$template" > "$dir/../src/$2CircularArrayQueue.java"
+}
+
+gen int Int Integer 4418409185716032262L 'return a == b;'
+gen long Long Long -3050417331564781139L 'return a == b;'
+gen double Double Double 7240236652913862094L \
+	'return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);'